@@ -0,0 +1,243 @@
+package com.udojava.evalex;
+
+import com.cedarsoftware.util.io.JsonWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmarks of parsing, evaluation, built-in functions, the
+ * <code>.i</code> loop of the calculator and saving and loading its state.
+ * Build and run with
+ * <pre>
+ * mvn -P jmh package
+ * java -jar target/benchmarks.jar -prof gc
+ * </pre>
+ * <code>-prof gc</code> adds the allocation rate and the bytes allocated
+ * per operation, a regex argument runs only the matching benchmarks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-opens=java.base/java.lang=ALL-UNNAMED")
+@State(Scope.Thread)
+public class ExpressionBenchmarks
+{
+    private static final String FORMULA = "2*a+sin(a)/3-max(a,1)";
+    private static final String REAL_FORMULA = "2*a+sin(a)/3-sqrt(a)*log(a+1)";
+    private static final String COMPLEX_FORMULA = "sin(c)^2+cos(c)*sin(c)+sqrt(c+1)*c";
+
+    private final LinkedList<String> history = new LinkedList<>();
+    private final Variables vars = new Variables();
+    private String largeFormula;
+
+    private Expression real;
+    private Expression complex;
+    private Expression generated;
+    private Expression arrayProduct;
+    private Expression arrayScale;
+    private Expression fib;
+    private Expression factorial;
+    private Expression integral;
+    private Expression variance;
+
+    private CompiledExpression loopTerm;
+    private Variables loopVars;
+
+    private Object[] session;
+    private String json;
+
+    @Setup
+    public void setUp ()
+    {
+        vars.put("a", new MyComplex(2));
+        vars.put("c", new MyComplex(1, 0.5));
+        vars.put("k", new MyComplex(30));
+        vars.put("m", new MyComplex(100));
+        vars.put("q", new MyComplex(2));
+        List<MyComplex> elements = new ArrayList<>();
+        for (int n = 0; n < 1000; n++)
+        {
+            elements.add(new MyComplex(n * 0.001));
+        }
+        vars.put("u", new MyComplex(elements));
+        vars.put("w", new MyComplex(elements));
+
+        StringBuilder large = new StringBuilder("0");
+        for (int n = 0; large.length() < 10_000; n++)
+        {
+            large.append(" + ").append(n).append(".5*a - sin(a)/(").append(n).append(" xor 3)^2");
+        }
+        largeFormula = large.toString();
+
+        real = new Expression(REAL_FORMULA, history, vars);
+        complex = new Expression(COMPLEX_FORMULA, history, vars);
+        generated = new Expression(REAL_FORMULA, history, vars);
+        generated.compileBytecode();
+        arrayProduct = new Expression("u.*w", history, vars);
+        arrayScale = new Expression("u*2", history, vars);
+        fib = new Expression("fib(k)", history, vars);
+        factorial = new Expression("m!", history, vars);
+        integral = new Expression("intgr(poly(1,2,q),0,1)", history, vars);
+        variance = new Expression("var(u)", history, vars);
+
+        loopVars = new Variables();
+        loopVars.put("_", new MyComplex(0));
+        loopTerm = new Expression("sin(_)^2+_*2", history, loopVars).compile();
+
+        Variables state = new Variables();
+        LinkedList<String> stateHistory = new LinkedList<>();
+        for (int n = 0; n < 100; n++)
+        {
+            state.put("v" + n, new MyComplex(n, n * 0.5));
+            stateHistory.add("sin(v" + n + ")*" + n);
+        }
+        state.put("l", new MyComplex(elements));
+        session = new Object[]{state, stateHistory};
+        json = JsonWriter.objectToJson(session);
+    }
+
+    @Benchmark
+    public Expression construction ()
+    {
+        return new Expression(FORMULA, history, vars);
+    }
+
+    /**
+     * What <code>shuntingYard</code> and <code>validate</code> did, the
+     * parser now builds and checks the tree in one pass.
+     */
+    @Benchmark
+    public Object parse ()
+    {
+        return new Expression(FORMULA, history, vars).parse();
+    }
+
+    @Benchmark
+    public Object parseLarge ()
+    {
+        return new Expression(largeFormula, history, vars).parse();
+    }
+
+    @Benchmark
+    public MyComplex parseAndEval ()
+    {
+        return new Expression(FORMULA, history, vars).eval();
+    }
+
+    @Benchmark
+    public CompiledExpression compileLarge ()
+    {
+        return new Expression(largeFormula, history, vars).compile();
+    }
+
+    @Benchmark
+    public MyComplex evalReal ()
+    {
+        return real.eval();
+    }
+
+    @Benchmark
+    public double evalRealToDouble ()
+    {
+        return real.evalReal();
+    }
+
+    @Benchmark
+    public MyComplex evalBytecode ()
+    {
+        return generated.eval();
+    }
+
+    @Benchmark
+    public MyComplex evalComplex ()
+    {
+        return complex.eval();
+    }
+
+    @Benchmark
+    public MyComplex evalArrayProduct ()
+    {
+        return arrayProduct.eval();
+    }
+
+    @Benchmark
+    public MyComplex evalArrayScale ()
+    {
+        return arrayScale.eval();
+    }
+
+    @Benchmark
+    public MyComplex fib ()
+    {
+        return fib.eval();
+    }
+
+    @Benchmark
+    public MyComplex factorial ()
+    {
+        return factorial.eval();
+    }
+
+    @Benchmark
+    public MyComplex intgr ()
+    {
+        return integral.eval();
+    }
+
+    @Benchmark
+    public MyComplex var ()
+    {
+        return variance.eval();
+    }
+
+    /**
+     * Like the <code>.i</code> command: the term compiled once and
+     * evaluated for every step, without printing.
+     */
+    @Benchmark
+    public List<MyComplex> iterate ()
+    {
+        MyComplex v = new MyComplex(1);
+        MyComplex step = new MyComplex(0.001);
+        List<MyComplex> out = new ArrayList<>();
+        for (int n = 0; n <= 1000; n++)
+        {
+            loopVars.put("_", v);
+            out.add(loopTerm.eval(loopVars, history));
+            v = v.add(step);
+        }
+        return out;
+    }
+
+    /**
+     * What <code>.s</code> writes, without the file.
+     */
+    @Benchmark
+    public String jsonSave ()
+    {
+        return JsonWriter.objectToJson(session);
+    }
+
+    /**
+     * What <code>.l</code> reads, without the file.
+     */
+    @Benchmark
+    public Object jsonLoad ()
+    {
+        return Main.fromJson(json);
+    }
+}
@@ -0,0 +1,140 @@
+package com.udojava.evalex;
+
+import org.apache.commons.math3.util.FastMath;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * The elements of <code>SEQ(start, step, count)</code>, kept as the three
+ * numbers instead of the elements so that even huge sequences take no
+ * memory. Element <code>n</code> is <code>start + n * step</code>, created
+ * when it is read. Reductions that know the sequence use closed forms.
+ */
+final class ArithmeticSequence extends AbstractList<MyComplex> implements RandomAccess
+{
+    final double start;
+    final double step;
+    private final int count;
+
+    ArithmeticSequence (double start, double step, int count)
+    {
+        this.start = start;
+        this.step = step;
+        this.count = Math.max(0, count);
+    }
+
+    @Override
+    public MyComplex get (int index)
+    {
+        if (index < 0 || index >= count)
+        {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+        }
+        return new MyComplex(element(index), 0.0, ValueType.REAL);
+    }
+
+    @Override
+    public int size ()
+    {
+        return count;
+    }
+
+    double element (long index)
+    {
+        return start + index * step;
+    }
+
+    /**
+     * @return The elements as an array.
+     */
+    double[] toDoubles ()
+    {
+        double[] d = new double[count];
+        for (int n = 0; n < count; n++)
+        {
+            d[n] = element(n);
+        }
+        return d;
+    }
+
+    /**
+     * Tells if the closed forms apply, they don't for NaN or infinite
+     * start or step.
+     */
+    boolean isFinite ()
+    {
+        return Double.isFinite(start) && Double.isFinite(step);
+    }
+
+    double sum ()
+    {
+        long pairs = (long) count * (count - 1) / 2;   // 0+1+...+(count-1), exact
+        return start * count + step * pairs;
+    }
+
+    /**
+     * Must not be empty.
+     */
+    double mean ()
+    {
+        return start + step * (count - 1) / 2.0;
+    }
+
+    /**
+     * The elements multiplied in order like commons-math's
+     * <code>Product</code> does, 1 if empty.
+     */
+    double product ()
+    {
+        double p = 1.0;
+        for (int n = 0; n < count && !Double.isNaN(p); n++)
+        {
+            p *= element(n);
+        }
+        return p;
+    }
+
+    /**
+     * The logarithms of the elements summed in order like commons-math's
+     * <code>GeometricMean</code> does. Must not be empty.
+     */
+    double geometricMean ()
+    {
+        double sum = 0.0;
+        for (int n = 0; n < count; n++)
+        {
+            sum += FastMath.log(element(n));
+        }
+        return FastMath.exp(sum / count);
+    }
+
+    /**
+     * The bias-corrected variance, <code>step^2 * count * (count+1) / 12</code>.
+     * Must not be empty.
+     */
+    double variance ()
+    {
+        if (count == 1)
+        {
+            return 0.0;
+        }
+        return step * step * ((double) ((long) count * (count + 1)) / 12.0);
+    }
+
+    /**
+     * Must not be empty.
+     */
+    double min ()
+    {
+        return step >= 0.0 ? start : element(count - 1);
+    }
+
+    /**
+     * Must not be empty.
+     */
+    double max ()
+    {
+        return step >= 0.0 ? element(count - 1) : start;
+    }
+}
@@ -0,0 +1,408 @@
+package com.udojava.evalex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Element-wise arithmetic on arrays, with a scalar operand applied to
+ * every element. Packed arrays of finite real numbers run through plain
+ * loops over their doubles, sequences are read as their elements are
+ * generated; everything else is computed one element at a
+ * time, finite real elements directly on their doubles and the rest with
+ * the {@link MyComplex} operations.
+ */
+final class ArrayMath
+{
+    static final int ADD = 0;
+    static final int SUBTRACT = 1;
+    static final int MULTIPLY = 2;
+    static final int DIVIDE = 3;
+    static final int POWER = 4;
+
+    private ArrayMath ()
+    {
+    }
+
+    /**
+     * Applies an operation element by element.
+     *
+     * @param op One of {@link #ADD}, {@link #SUBTRACT}, {@link #MULTIPLY},
+     *           {@link #DIVIDE} and {@link #POWER}.
+     * @param v1 Operand 1, an array or a scalar.
+     * @param v2 Operand 2, an array or a scalar.
+     * @return An array if an operand is one, else the scalar result.
+     */
+    static MyComplex apply (int op, MyComplex v1, MyComplex v2)
+    {
+        boolean array1 = v1.type == ValueType.ARRAY;
+        boolean array2 = v2.type == ValueType.ARRAY;
+        if (!array1 && !array2)
+        {
+            return scalar(op, v1, v2);
+        }
+        int size = array1 ? v1.list.size() : v2.list.size();
+        if (array1 && array2 && v2.list.size() != size)
+        {
+            throw new ExpressionException("Arrays differ in length: " + size + " and " + v2.list.size());
+        }
+        if (op != POWER && (v1.list instanceof ArithmeticSequence || v2.list instanceof ArithmeticSequence))
+        {
+            double[] r = sequence(op, v1, v2, size);
+            if (r != null)
+            {
+                return new MyComplex(r, null);
+            }
+        }
+        else if (op != POWER)
+        {
+            double[] x = reals(v1);
+            double[] y = reals(v2);
+            if (x != null && y != null)
+            {
+                if (isPlain(op, x, y, null))
+                {
+                    return new MyComplex(real(op, x, y, size), null);
+                }
+            }
+            else
+            {
+                double[][] p1 = parts(v1);
+                double[][] p2 = parts(v2);
+                if (p1 != null && p2 != null && isPlain(op, p1[0], p2[0], p2[1]) && isPlain(op, p1[1], p2[1], p2[0]))
+                {
+                    return complex(op, p1, p2, size);
+                }
+            }
+        }
+        List<MyComplex> result = new ArrayList<>(size);
+        for (int n = 0; n < size; n++)
+        {
+            result.add(apply(op, element(v1, n), element(v2, n)));
+        }
+        return new MyComplex(result);
+    }
+
+    /**
+     * Negates a scalar or every element of an array. The real part keeps
+     * the sign of zeros, <code>-0</code> is negative zero unlike
+     * <code>0 - 0</code>; the imaginary part is subtracted from 0, so that
+     * a negative real number stays on the positive side of the branch cut
+     * of roots and logarithms.
+     *
+     * @param v An array or a scalar.
+     * @return The negated value, of the same type.
+     */
+    static MyComplex negate (MyComplex v)
+    {
+        if (v.type != ValueType.ARRAY)
+        {
+            return v.isNaN()
+                    ? new MyComplex(Double.NaN, Double.NaN, v.type)
+                    : new MyComplex(-v.real, 0.0 - v.imaginary, v.type);
+        }
+        if (v.list instanceof ArithmeticSequence)
+        {
+            ArithmeticSequence s = (ArithmeticSequence) v.list;
+            return new MyComplex(new ArithmeticSequence(-s.start, -s.step, s.size()));
+        }
+        if (v.list instanceof PackedArray)
+        {
+            PackedArray p = (PackedArray) v.list;
+            return new MyComplex(negate(p.reals, true), p.isReal() ? null : negate(p.imaginaries, false));
+        }
+        List<MyComplex> result = new ArrayList<>(v.list.size());
+        for (MyComplex e : v.list)
+        {
+            result.add(negate(e));
+        }
+        return new MyComplex(result);
+    }
+
+    /**
+     * @param signedZeros <code>false</code> to subtract from 0 instead.
+     */
+    private static double[] negate (double[] d, boolean signedZeros)
+    {
+        double[] r = new double[d.length];
+        for (int n = 0; n < d.length; n++)
+        {
+            r[n] = signedZeros ? -d[n] : 0.0 - d[n];
+        }
+        return r;
+    }
+
+    /**
+     * The elements of a packed real array, or a real scalar as an array of
+     * one element.
+     *
+     * @return <code>null</code> if the operand isn't real or not packed.
+     */
+    private static double[] reals (MyComplex v)
+    {
+        if (v.type == ValueType.ARRAY)
+        {
+            return v.list instanceof PackedArray && ((PackedArray) v.list).isReal()
+                    ? ((PackedArray) v.list).reals
+                    : null;
+        }
+        return isReal(v) ? new double[]{v.real} : null;
+    }
+
+    /**
+     * The real and imaginary parts of a packed array or a scalar, a scalar
+     * as arrays of one element.
+     *
+     * @return <code>null</code> if the operand isn't packed.
+     */
+    private static double[][] parts (MyComplex v)
+    {
+        if (v.type != ValueType.ARRAY)
+        {
+            return new double[][]{{v.real}, {v.imaginary}};
+        }
+        if (!(v.list instanceof PackedArray))
+        {
+            return null;
+        }
+        PackedArray p = (PackedArray) v.list;
+        return new double[][]{p.reals, p.isReal() ? new double[p.reals.length] : p.imaginaries};
+    }
+
+    /**
+     * Runs an operation with an arithmetic sequence as operand, on its
+     * elements as they are generated instead of on a copy of them.
+     *
+     * @return <code>null</code> if an operand isn't real, an element isn't
+     * finite or a divisor is 0, the operation is then computed element by
+     * element.
+     */
+    private static double[] sequence (int op, MyComplex v1, MyComplex v2, int size)
+    {
+        double[] r = new double[size];
+        for (int n = 0; n < size; n++)
+        {
+            double x = realElement(v1, n);
+            double y = realElement(v2, n);
+            if (!Double.isFinite(x) || !Double.isFinite(y) || op == DIVIDE && y == 0.0)
+            {
+                return null;
+            }
+            r[n] = real(op, x, y);
+        }
+        return r;
+    }
+
+    /**
+     * Element <code>n</code> of a real scalar, a sequence or a packed real
+     * array, NaN for other operands.
+     */
+    private static double realElement (MyComplex v, int n)
+    {
+        if (v.type != ValueType.ARRAY)
+        {
+            return isReal(v) ? v.real : Double.NaN;
+        }
+        if (v.list instanceof ArithmeticSequence)
+        {
+            return ((ArithmeticSequence) v.list).element(n);
+        }
+        return v.list instanceof PackedArray && ((PackedArray) v.list).isReal()
+                ? ((PackedArray) v.list).reals[n]
+                : Double.NaN;
+    }
+
+    /**
+     * Tells if the operands are finite and no divisor is 0, so that the
+     * loops give the same results as {@link MyComplex}.
+     *
+     * @param other The other part of the divisor, <code>null</code> if it is
+     *              real.
+     */
+    private static boolean isPlain (int op, double[] x, double[] y, double[] other)
+    {
+        double check = 0.0;
+        for (double d : x)
+        {
+            check += d * 0.0;   // NaN for NaN and infinities
+        }
+        for (int n = 0; n < y.length; n++)
+        {
+            check += y[n] * 0.0;
+            if (op == DIVIDE && y[n] == 0.0 && (other == null || other[other.length == 1 ? 0 : n] == 0.0))
+            {
+                return false;
+            }
+        }
+        return check == 0.0;
+    }
+
+    /**
+     * Runs an operation over arrays of complex numbers, like
+     * {@link MyComplex} does for finite numbers.
+     */
+    private static MyComplex complex (int op, double[][] p1, double[][] p2, int size)
+    {
+        double[] a = broadcast(p1[0], size);
+        double[] b = broadcast(p1[1], size);
+        double[] c = broadcast(p2[0], size);
+        double[] d = broadcast(p2[1], size);
+        double[] re = new double[size];
+        double[] im = new double[size];
+        switch (op)
+        {
+            case ADD:
+                for (int n = 0; n < size; n++)
+                {
+                    re[n] = a[n] + c[n];
+                    im[n] = b[n] + d[n];
+                }
+                break;
+            case SUBTRACT:
+                for (int n = 0; n < size; n++)
+                {
+                    re[n] = a[n] - c[n];
+                    im[n] = b[n] - d[n];
+                }
+                break;
+            case MULTIPLY:
+                for (int n = 0; n < size; n++)
+                {
+                    re[n] = a[n] * c[n] - b[n] * d[n];
+                    im[n] = a[n] * d[n] + b[n] * c[n];
+                }
+                break;
+            default:
+                // Smith's algorithm like MyComplex.divide
+                for (int n = 0; n < size; n++)
+                {
+                    if (Math.abs(c[n]) < Math.abs(d[n]))
+                    {
+                        double q = c[n] / d[n];
+                        double denominator = c[n] * q + d[n];
+                        re[n] = (a[n] * q + b[n]) / denominator;
+                        im[n] = (b[n] * q - a[n]) / denominator;
+                    }
+                    else
+                    {
+                        double q = d[n] / c[n];
+                        double denominator = d[n] * q + c[n];
+                        re[n] = (b[n] * q + a[n]) / denominator;
+                        im[n] = (b[n] - a[n] * q) / denominator;
+                    }
+                }
+                break;
+        }
+        return new MyComplex(re, im);
+    }
+
+    /**
+     * Runs an operation over arrays of real numbers, an array of length 1
+     * stands for a scalar. The loops are kept simple so that the JIT can
+     * vectorize them.
+     */
+    private static double[] real (int op, double[] x, double[] y, int size)
+    {
+        x = broadcast(x, size);
+        y = broadcast(y, size);
+        double[] r = new double[size];
+        switch (op)
+        {
+            case ADD:
+                for (int n = 0; n < size; n++)
+                {
+                    r[n] = x[n] + y[n];
+                }
+                break;
+            case SUBTRACT:
+                for (int n = 0; n < size; n++)
+                {
+                    r[n] = x[n] - y[n];
+                }
+                break;
+            case MULTIPLY:
+                for (int n = 0; n < size; n++)
+                {
+                    r[n] = x[n] * y[n];
+                }
+                break;
+            default:
+                // like MyComplex.divide, including the sign of zero results
+                for (int n = 0; n < size; n++)
+                {
+                    double q = 0.0 / y[n];
+                    r[n] = (0.0 * q + x[n]) / (0.0 * q + y[n]);
+                }
+                break;
+        }
+        return r;
+    }
+
+    private static double[] broadcast (double[] d, int size)
+    {
+        if (d.length == size)
+        {
+            return d;
+        }
+        double[] b = new double[size];
+        Arrays.fill(b, d[0]);
+        return b;
+    }
+
+    private static MyComplex scalar (int op, MyComplex v1, MyComplex v2)
+    {
+        if (op != POWER && isReal(v1) && isReal(v2))
+        {
+            double x = v1.real;
+            double y = v2.real;
+            if (Double.isFinite(x) && Double.isFinite(y) && (op != DIVIDE || y != 0.0))
+            {
+                return new MyComplex(real(op, x, y), 0.0, ValueType.REAL);
+            }
+            // NaN and infinities follow the complex rules
+        }
+        switch (op)
+        {
+            case ADD:
+                return v1.add(v2);
+            case SUBTRACT:
+                return v1.subtract(v2);
+            case MULTIPLY:
+                return v1.multiply(v2);
+            case DIVIDE:
+                return v1.divide(v2);
+            default:
+                return v1.pow(v2);
+        }
+    }
+
+    /**
+     * Computes an operation on finite real numbers like {@link MyComplex}
+     * does, including the sign of zero results.
+     */
+    private static double real (int op, double x, double y)
+    {
+        switch (op)
+        {
+            case ADD:
+                return x + y;
+            case SUBTRACT:
+                return x - y;
+            case MULTIPLY:
+                return x * y;
+            default:
+                double q = 0.0 / y;
+                return (0.0 * q + x) / (0.0 * q + y);
+        }
+    }
+
+    private static boolean isReal (MyComplex v)
+    {
+        return v.type == ValueType.REAL && v.imaginary == 0.0;
+    }
+
+    private static MyComplex element (MyComplex v, int n)
+    {
+        return v.type == ValueType.ARRAY ? v.list.get(n) : v;
+    }
+}
@@ -0,0 +1,406 @@
+package com.udojava.evalex;
+
+import com.cedarsoftware.util.io.JsonWriter;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+
+/**
+ * Simple timing harness for the expression evaluator. Each case reports
+ * the time of one call, the bytes it allocates and the allocation rate.
+ * Run with <code>java -cp EvalTool.jar com.udojava.evalex.Benchmark [filter]</code>,
+ * a filter runs only the cases whose description contains it. Reading
+ * JSON needs <code>--add-opens java.base/java.lang=ALL-UNNAMED</code> on
+ * Java 9 and later.
+ */
+public class Benchmark
+{
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int ROUNDS = 5;
+
+    /**
+     * Keeps results alive so the JIT can't drop the measured code.
+     */
+    private static volatile Object sink;
+
+    /**
+     * Lower case part of the descriptions of the cases to run,
+     * <code>null</code> for all.
+     */
+    private static String filter = null;
+
+    /**
+     * Counts the bytes allocated by a thread, <code>null</code> if the
+     * JVM doesn't support it.
+     */
+    private static final com.sun.management.ThreadMXBean ALLOCATIONS = allocationCounter();
+
+    public static void main (String[] args)
+    {
+        filter = args.length > 0 ? args[0].toLowerCase(Locale.ROOT) : null;
+        LinkedList<String> hist = new LinkedList<>();
+        Variables vars = new Variables();
+
+        run("Builtins construction (old per Expression cost)", 20_000,
+                Builtins::new);
+        run("Expression construction", 1_000_000,
+                () -> new Expression("1+2", hist, vars));
+
+        String formula = "2*a+sin(a)/3-max(a,1)";
+        vars.put("a", new MyComplex(0));
+        Expression compiled = new Expression(formula, hist, vars);
+        run("Parse and eval() per call", 200_000,
+                () -> new Expression(formula, hist, vars).eval());
+        String unary = "-a*2+5!-(~3 xor 1)";
+        run("Parse and eval() with unary and keyword operators", 200_000,
+                () -> new Expression(unary, hist, vars).eval());
+        StringBuilder large = new StringBuilder("0");
+        for (int n = 0; large.length() < 10_000; n++)
+        {
+            large.append(" + ").append(n).append(".5*a - sin(a)/(").append(n).append(" xor 3)^2");
+        }
+        String largeFormula = large.toString();
+        run("Lex a 10 KB expression", 2_000, () -> {
+            Lexer lexer = new Lexer(largeFormula, Builtins.DEFAULT.getOperatorTrie());
+            int tokens = 0;
+            while (lexer.next() != Lexer.END)
+            {
+                tokens++;
+            }
+            return tokens;
+        });
+        run("Parse and compile() a 10 KB expression", 200,
+                () -> new Expression(largeFormula, hist, vars).compile());
+        StringBuilder nested = new StringBuilder();
+        for (int n = 0; n < 500; n++)
+        {
+            nested.append("max(-a^").append(n).append(", ");
+        }
+        nested.append('a');
+        for (int n = 0; n < 500; n++)
+        {
+            nested.append(")!");
+        }
+        String nestedFormula = nested.toString();
+        run("Parse and compile() 500 nested calls", 200,
+                () -> new Expression(nestedFormula, hist, vars).compile());
+        ExpressionCache cache = new ExpressionCache(256, 1 << 20);
+        run("ExpressionCache.get() and eval() per call", 1_000_000,
+                () -> cache.get(formula, vars, Builtins.DEFAULT).eval(vars));
+        run("eval() of one compiled expression", 1_000_000,
+                compiled::eval);
+        CompiledExpression shared = new Expression(formula, hist, vars).compile();
+        run("eval() of a CompiledExpression", 1_000_000,
+                () -> shared.eval(vars));
+        Expression generated = new Expression(formula, hist, vars);
+        generated.compileBytecode();
+        run("eval() as generated bytecode", 1_000_000,
+                generated::eval);
+
+        String realFormula = "2*a+sin(a)/3-sqrt(a)*log(a+1)";
+        vars.put("a", new MyComplex(2));
+        Expression real = new Expression(realFormula, hist, vars);
+        run("eval() of a real expression", 1_000_000,
+                real::eval);
+        run("evalReal() of a real expression", 1_000_000,
+                real::evalReal);
+
+        String constFormula = "2*P/360*a+sqrt(2)*log(10)";
+        vars.put("P", new MyComplex(Math.PI));
+        run("eval() with P a variable", 1_000_000,
+                new Expression(constFormula, hist, vars)::eval);
+        Variables constants = new Variables();
+        constants.put("a", new MyComplex(2));
+        constants.putConstant("P", new MyComplex(Math.PI));
+        run("eval() with P a constant (folded)", 1_000_000,
+                new Expression(constFormula, hist, constants)::eval);
+
+        String repeated = "sin(a)^2+cos(a)*sin(a)+sin(a)+sqrt(a+1)*sqrt(a+1)";
+        vars.put("a", new MyComplex(1, 0.5));
+        run("eval() with repeated subexpressions", 1_000_000,
+                new Expression(repeated, hist, vars)::eval);
+
+        run("eval() of IF guarding an expensive branch", 200_000,
+                new Expression("if(a, a*2, sum(seq(1,1,5000)))", hist, vars)::eval);
+
+        StringBuilder terms = new StringBuilder("a");
+        for (int n = 1; n < 400; n++)
+        {
+            terms.append("+a*").append(n % 7);
+        }
+        String termsFormula = terms.toString();
+        run("eval() of a complex sum of 400 terms", 20_000,
+                new Expression(termsFormula, hist, vars)::eval);
+        for (int n = 400; n < 20_000; n++)
+        {
+            terms.append("+a*").append(n % 7);
+        }
+        String deepFormula = terms.toString();
+        run("eval() of a complex sum of 20000 terms", 200,
+                new Expression(deepFormula, hist, vars)::eval);
+
+        StringBuilder sum = new StringBuilder("0");
+        Variables inputs = new Variables();
+        for (int n = 0; n < 50; n++)
+        {
+            sum.append("+v").append(n);
+            inputs.put("v" + n, new MyComplex(0));
+        }
+        CompiledExpression wide = new Expression(sum.toString(), hist, inputs).compile();
+        double[] row = new double[50];
+        run("Bind 50 inputs in Variables and eval()", 200_000, () -> {
+            for (int n = 0; n < row.length; n++)
+            {
+                inputs.put("v" + n, new MyComplex(row[n]));
+            }
+            return wide.eval(inputs);
+        });
+        Frame frame = wide.newFrame();
+        run("Bind 50 inputs in a Frame and evalReal()", 200_000, () -> {
+            frame.setReals(row);
+            return wide.evalReal(frame);
+        });
+
+        int rows = 10_000;
+        double[] as = new double[rows];
+        double[] cs = new double[rows];
+        for (int n = 0; n < rows; n++)
+        {
+            as[n] = n * 0.001;
+            cs[n] = 1.0 - n * 0.0005;
+        }
+        double[] results = new double[rows];
+        String columnFormula = "a*c+sqrt(a)-c/2";
+        Variables columnVars = new Variables();
+        columnVars.put("a", new MyComplex(0));
+        columnVars.put("c", new MyComplex(0));
+        run("Parse and eval() per row, 10000 rows", 5, () -> {
+            for (int n = 0; n < rows; n++)
+            {
+                columnVars.put("a", new MyComplex(as[n]));
+                columnVars.put("c", new MyComplex(cs[n]));
+                results[n] = new Expression(columnFormula, hist, columnVars).eval().real;
+            }
+            return results;
+        });
+        CompiledExpression columnExpression = new Expression(columnFormula, hist, columnVars).compile();
+        Frame columnFrame = columnExpression.newFrame();
+        int slotA = columnExpression.getSlot("a");
+        int slotC = columnExpression.getSlot("c");
+        run("evalReal(Frame) per row, 10000 rows", 200, () -> {
+            for (int n = 0; n < rows; n++)
+            {
+                columnFrame.setReal(slotA, as[n]);
+                columnFrame.setReal(slotC, cs[n]);
+                results[n] = columnExpression.evalReal(columnFrame);
+            }
+            return results;
+        });
+        String[] columnNames = {"a", "c"};
+        double[][] columns = {as, cs};
+        run("evalColumns(), 10000 rows", 200, () -> {
+            columnExpression.evalColumns(columnNames, columns, results);
+            return results;
+        });
+
+        int bigRows = 1_000_000;
+        double[] bigAs = new double[bigRows];
+        double[] bigCs = new double[bigRows];
+        for (int n = 0; n < bigRows; n++)
+        {
+            bigAs[n] = n * 0.001;
+            bigCs[n] = 1.0 - n * 0.0005;
+        }
+        double[] bigResults = new double[bigRows];
+        double[][] bigColumns = {bigAs, bigCs};
+        for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2)
+        {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            run("evalColumns() on " + threads + " threads, 1000000 rows", 5, () -> {
+                columnExpression.evalColumns(columnNames, bigColumns, bigResults, pool, 16_384);
+                return bigResults;
+            });
+            pool.shutdown();
+        }
+
+        List<MyComplex> realElements = new ArrayList<>();
+        List<MyComplex> complexElements = new ArrayList<>();
+        for (int n = 0; n < bigRows; n++)
+        {
+            realElements.add(new MyComplex(n * 0.001));
+            complexElements.add(new MyComplex(n * 0.001, 1));
+        }
+        Variables arrays = new Variables();
+        arrays.put("u", new MyComplex(realElements));
+        arrays.put("w", new MyComplex(realElements));
+        arrays.put("z", new MyComplex(complexElements));
+        run("u.*w, 1000000 real elements", 5,
+                new Expression("u.*w", hist, arrays)::eval);
+        run("u*2, 1000000 real elements", 5,
+                new Expression("u*2", hist, arrays)::eval);
+        run("z.*w, 1000000 complex elements", 5,
+                new Expression("z.*w", hist, arrays)::eval);
+
+        Variables counts = new Variables();
+        counts.put("n", new MyComplex(1_000_000));
+        counts.put("g", new MyComplex(1_000_000_000));
+        run("seq(0,1,n), n=1000000", 5,
+                new Expression("seq(0,1,n)", hist, counts)::eval);
+        run("sum(seq(0,1,n)), n=1000000", 5,
+                new Expression("sum(seq(0,1,n))", hist, counts)::eval);
+        run("sum(seq(0,1,g)), g=1000000000", 1_000_000,
+                new Expression("sum(seq(0,1,g))", hist, counts)::eval);
+        run("var(seq(0,1,n)), n=1000000", 5,
+                new Expression("var(seq(0,1,n))", hist, counts)::eval);
+
+        Variables inputs2 = new Variables();
+        inputs2.put("k", new MyComplex(30));
+        inputs2.put("m", new MyComplex(100));
+        inputs2.put("q", new MyComplex(2));
+        inputs2.put("u", new MyComplex(realElements.subList(0, 1000)));
+        run("FIB(k), k=30", 1_000_000,
+                new Expression("fib(k)", hist, inputs2)::eval);
+        run("m!, m=100", 100_000,
+                new Expression("m!", hist, inputs2)::eval);
+        run("INTGR(POLY(1,2,q),0,1)", 10_000,
+                new Expression("intgr(poly(1,2,q),0,1)", hist, inputs2)::eval);
+        run("VAR(u), 1000 elements", 100_000,
+                new Expression("var(u)", hist, inputs2)::eval);
+
+        // like the .i command: compile once, evaluate for every step
+        Variables loopVars = new Variables();
+        loopVars.put("_", new MyComplex(0));
+        CompiledExpression loopTerm = new Expression("sin(_)^2+_*2", hist, loopVars).compile();
+        run(".i-style loop, 1001 steps", 1_000, () -> {
+            MyComplex v = new MyComplex(1);
+            MyComplex step = new MyComplex(0.001);
+            List<MyComplex> out = new ArrayList<>();
+            for (int n = 0; n <= 1000; n++)
+            {
+                loopVars.put("_", v);
+                out.add(loopTerm.eval(loopVars, hist));
+                v = v.add(step);
+            }
+            return out;
+        });
+
+        // what .s and .l write and read, without the file
+        Variables state = new Variables();
+        LinkedList<String> stateHistory = new LinkedList<>();
+        for (int n = 0; n < 100; n++)
+        {
+            state.put("v" + n, new MyComplex(n, n * 0.5));
+            stateHistory.add("sin(v" + n + ")*" + n);
+        }
+        state.put("l", new MyComplex(realElements.subList(0, 1000)));
+        Object[] session = {state, stateHistory};
+        run("JSON save of 100 variables and 100 history entries", 1_000,
+                () -> JsonWriter.objectToJson(session));
+        String json = JsonWriter.objectToJson(session);
+        run("JSON load of 100 variables and 100 history entries", 1_000,
+                () -> Main.fromJson(json));
+
+        MyComplex r1 = new MyComplex(1.5);
+        MyComplex r2 = new MyComplex(-0.25);
+        MyComplex c1 = new MyComplex(1.5, 2);
+        MyComplex c2 = new MyComplex(-0.25, 3);
+        run("MyComplex real add()", 10_000_000, () -> r1.add(r2));
+        run("MyComplex real multiply()", 10_000_000, () -> r1.multiply(r2));
+        run("MyComplex real divide()", 10_000_000, () -> r1.divide(r2));
+        run("MyComplex real pow()", 1_000_000, () -> r1.pow(r2));
+        run("MyComplex complex add()", 10_000_000, () -> c1.add(c2));
+        run("MyComplex complex multiply()", 10_000_000, () -> c1.multiply(c2));
+        run("MyComplex complex divide()", 10_000_000, () -> c1.divide(c2));
+        run("MyComplex complex pow()", 1_000_000, () -> c1.pow(c2));
+    }
+
+    /**
+     * Times a piece of code and prints the average duration of one call.
+     *
+     * @param name Description of the measured code.
+     * @param ops  Calls per round.
+     * @param code The code to measure.
+     */
+    static void run (String name, int ops, Supplier<Object> code)
+    {
+        if (filter != null && !name.toLowerCase(Locale.ROOT).contains(filter))
+        {
+            return;
+        }
+        try
+        {
+            for (int r = 0; r < WARMUP_ROUNDS; r++)
+            {
+                measure(ops, code);
+            }
+        }
+        catch (RuntimeException e)
+        {
+            System.out.println(String.format("%-55s skipped: %s", name, e));
+            return;
+        }
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        long bytes = allocatedBytes();
+        for (int r = 0; r < ROUNDS; r++)
+        {
+            long time = measure(ops, code);
+            best = Math.min(best, time);
+            total += time;
+        }
+        bytes = allocatedBytes() - bytes;
+        if (ALLOCATIONS == null)
+        {
+            System.out.println(String.format("%-55s %12.1f ns/op", name, (double) best / ops));
+        }
+        else
+        {
+            // bytes per ns are GB/s, the rate that drives the GC
+            System.out.println(String.format("%-55s %12.1f ns/op %10.1f B/op %8.1f MB/s",
+                    name, (double) best / ops, (double) bytes / ops / ROUNDS, bytes * 1000.0 / total));
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter ()
+    {
+        try
+        {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean)
+            {
+                com.sun.management.ThreadMXBean b = (com.sun.management.ThreadMXBean) bean;
+                if (b.isThreadAllocatedMemorySupported())
+                {
+                    b.setThreadAllocatedMemoryEnabled(true);
+                    return b;
+                }
+            }
+        }
+        catch (LinkageError | UnsupportedOperationException e)
+        {
+            // Not a HotSpot JVM
+        }
+        return null;
+    }
+
+    private static long allocatedBytes ()
+    {
+        return ALLOCATIONS == null ? 0 : ALLOCATIONS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long measure (int ops, Supplier<Object> code)
+    {
+        long start = System.nanoTime();
+        for (int n = 0; n < ops; n++)
+        {
+            sink = code.get();
+        }
+        return System.nanoTime() - start;
+    }
+}
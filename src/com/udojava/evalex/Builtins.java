@@ -0,0 +1,2000 @@
+package com.udojava.evalex;
+
+import org.apache.commons.math3.analysis.integration.SimpsonIntegrator;
+import org.apache.commons.math3.analysis.polynomials.PolynomialFunction;
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.complex.ComplexUtils;
+import org.apache.commons.math3.random.MersenneTwister;
+import org.apache.commons.math3.stat.descriptive.moment.GeometricMean;
+import org.apache.commons.math3.stat.descriptive.moment.Mean;
+import org.apache.commons.math3.stat.descriptive.summary.Product;
+import org.apache.commons.math3.stat.descriptive.summary.Sum;
+import org.apache.commons.math3.util.ArithmeticUtils;
+import org.apache.commons.math3.util.CombinatoricsUtils;
+import org.apache.commons.math3.util.FastMath;
+
+import java.math.BigInteger;
+import java.util.*;
+
+import static org.apache.commons.math3.primes.Primes.nextPrime;
+import static org.apache.commons.math3.stat.StatUtils.variance;
+
+/**
+ * Immutable set of operators and functions known to an {@link Expression}.
+ * The built-ins are created once per process and shared by all expressions,
+ * custom operators or functions are layered on top by copying the set.
+ */
+public final class Builtins
+{
+    /**
+     * The built-in operators and functions.
+     */
+    public static final Builtins DEFAULT = new Builtins();
+
+    /**
+     * All defined operators with name and implementation.
+     */
+    private final Map<String, Operator> operators;
+    /**
+     * All defined functions with name and implementation.
+     */
+    private final Map<String, LazyFunction> functions;
+    /**
+     * Read only views handed out to callers.
+     */
+    private final Map<String, Operator> opsView;
+    private final Map<String, LazyFunction> funcsView;
+    /**
+     * The operator names for the lexer.
+     */
+    private final Lexer.Trie operatorTrie;
+
+    /**
+     * Creates a fresh set of the built-in operators and functions.
+     * Use {@link #DEFAULT} instead of calling this.
+     */
+    Builtins ()
+    {
+        operators = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        functions = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        opsView = Collections.unmodifiableMap(operators);
+        funcsView = Collections.unmodifiableMap(functions);
+
+        addOperator(new Operator("+", 20, true,
+                "Addition")
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                if (v1.type == ValueType.ARRAY)
+                {
+                    List<MyComplex> l = new ArrayList<>(v1.list);
+                    l.add(v2);
+                    return new MyComplex(l);
+                }
+                return v1.add(v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                if (t1 == ValueType.ARRAY)
+                {
+                    return ValueType.ARRAY;
+                }
+                return arithmeticType(t1, t2);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 + v2;
+            }
+        });
+
+        addOperator(new Operator("-", 20, true,
+                "Subtraction")
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                if (v1.type == ValueType.ARRAY)
+                {
+                    List<MyComplex> l = new ArrayList<>(v1.list);
+                    l.removeIf(o -> o.equals(v2));
+                    return new MyComplex(l);
+                }
+                return v1.subtract(v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                if (t1 == ValueType.ARRAY)
+                {
+                    return ValueType.ARRAY;
+                }
+                return arithmeticType(t1, t2);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 - v2;
+            }
+        });
+
+        // - and + in front of an operand, the parser looks them up by
+        // this name. They bind tighter than * but not as tight as ^
+        addOperator(new Operator("u-", 35, false,
+                "Negation, written as -")
+        {
+            @Override
+            public boolean isPrefix ()
+            {
+                return true;
+            }
+
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return ArrayMath.negate(v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return t2;
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return -v2;
+            }
+        });
+
+        addOperator(new Operator("u+", 35, false,
+                "Unary plus, written as +")
+        {
+            @Override
+            public boolean isPrefix ()
+            {
+                return true;
+            }
+
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return v2;
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return t2;
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v2;
+            }
+        });
+
+        addOperator(new Operator("*", 30, true,
+                "Real number multiplication, element-wise on arrays")
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return ArrayMath.apply(ArrayMath.MULTIPLY, v1, v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return elementwiseType(t1, t2);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return multiply(v1, v2);
+            }
+        });
+        addOperator(new Operator("/", 30, true,
+                "Real number division, element-wise on arrays")
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return ArrayMath.apply(ArrayMath.DIVIDE, v1, v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return elementwiseType(t1, t2);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return divide(v1, v2);
+            }
+        });
+        addOperator(new Operator("%", 30, true,
+                "Remainder of integer division", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                double r = v1.real % v2.real;
+                return new MyComplex(r);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 % v2;
+            }
+        });
+        addOperator(new Operator("^", 40, false,
+                "Exponentation, element-wise on arrays. See: https://en.wikipedia.org/wiki/Exponentiation")
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return ArrayMath.apply(ArrayMath.POWER, v1, v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return elementwiseType(t1, t2);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return pow(v1, v2);
+            }
+        });
+        addOperator(new Operator(".+", 20, true,
+                "Element-wise addition of arrays, or of an array and a number")
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return ArrayMath.apply(ArrayMath.ADD, v1, v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return elementwiseType(t1, t2);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 + v2;
+            }
+        });
+        addOperator(new Operator(".-", 20, true,
+                "Element-wise subtraction of arrays, or of an array and a number")
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return ArrayMath.apply(ArrayMath.SUBTRACT, v1, v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return elementwiseType(t1, t2);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 - v2;
+            }
+        });
+        addOperator(new Operator(".*", 30, true,
+                "Element-wise multiplication, same as *")
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return ArrayMath.apply(ArrayMath.MULTIPLY, v1, v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return elementwiseType(t1, t2);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return multiply(v1, v2);
+            }
+        });
+        addOperator(new Operator("./", 30, true,
+                "Element-wise division, same as /")
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return ArrayMath.apply(ArrayMath.DIVIDE, v1, v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return elementwiseType(t1, t2);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return divide(v1, v2);
+            }
+        });
+        addOperator(new Operator(".^", 40, false,
+                "Element-wise exponentation, same as ^")
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return ArrayMath.apply(ArrayMath.POWER, v1, v2);
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return elementwiseType(t1, t2);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return pow(v1, v2);
+            }
+        });
+        addOperator(new LazyOperator("&&", 4, false,
+                "Logical AND. Evaluates to 1 if both operands are not 0", ValueType.REAL)
+        {
+            @Override
+            public LazyNumber lazyEval (LazyNumber v1, LazyNumber v2)
+            {
+                if (v1.eval().real == 0.0)
+                {
+                    return () -> new MyComplex(0);
+                }
+                boolean b2 = v2.eval().real != 0.0;
+                return () -> new MyComplex(b2?1:0);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return (v1 != 0.0 && v2 != 0.0) ? 1 : 0;
+            }
+
+            @Override
+            double evalReal (Expression ex, RealNode v1, RealNode v2)
+            {
+                return (v1.eval(ex) != 0.0 && v2.eval(ex) != 0.0) ? 1 : 0;
+            }
+        });
+
+        addOperator(new LazyOperator("||", 2, false,
+                "Logical OR. Evaluates to 0 if both operands are 0", ValueType.REAL)
+        {
+            @Override
+            public LazyNumber lazyEval (LazyNumber v1, LazyNumber v2)
+            {
+                if (v1.eval().real != 0.0)
+                {
+                    return () -> new MyComplex(1);
+                }
+                boolean b2 = v2.eval().real != 0.0;
+                return () -> new MyComplex(b2?1:0);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return (v1 == 0.0 && v2 == 0.0) ? 0 : 1;
+            }
+
+            @Override
+            double evalReal (Expression ex, RealNode v1, RealNode v2)
+            {
+                return (v1.eval(ex) != 0.0 || v2.eval(ex) != 0.0) ? 1 : 0;
+            }
+        });
+
+        addOperator(new Operator(">", 10, false,
+                "Greater than. See: See: https://en.wikipedia.org/wiki/Inequality_(mathematics)", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                if (v1.type == ValueType.REAL && v2.type == ValueType.REAL)
+                {
+                    return new MyComplex(v1.real>v2.real?1:0);
+                }
+                else
+                {
+                    return new MyComplex (v1.abs()>v2.abs()?1:0);
+                }
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 > v2 ? 1 : 0;
+            }
+        });
+
+        addOperator(new Operator(">=", 10, false,
+                "Greater or equal", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                if (v1.type == ValueType.REAL && v2.type == ValueType.REAL)
+                {
+                    return new MyComplex(v1.real>=v2.real?1:0);
+                }
+                else
+                {
+                    return new MyComplex (v1.abs()>=v2.abs()?1:0);
+                }
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 >= v2 ? 1 : 0;
+            }
+        });
+
+        addOperator(new Operator("<", 10, false,
+                "Less than. See: https://en.wikipedia.org/wiki/Inequality_(mathematics)", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                if (v1.type == ValueType.REAL && v2.type == ValueType.REAL)
+                {
+                    return new MyComplex(v1.real<v2.real?1:0);
+                }
+                else
+                {
+                    return new MyComplex (v1.abs()<v2.abs()?1:0);
+                }
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 < v2 ? 1 : 0;
+            }
+        });
+
+        addOperator(new Operator("<=", 10, false,
+                "less or equal", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                if (v1.type == ValueType.REAL && v2.type == ValueType.REAL)
+                {
+                    return new MyComplex(v1.real<=v2.real?1:0);
+                }
+                else
+                {
+                    return new MyComplex (v1.abs()<=v2.abs()?1:0);
+                }
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 <= v2 ? 1 : 0;
+            }
+        });
+
+        addOperator(new Operator("->", 7, false,
+                "Set variable v to new value ")
+        {
+            @Override
+            public boolean isPure ()
+            {
+                return false;
+            }
+
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                throw new ExpressionException("Assignment needs an expression");
+            }
+
+            @Override
+            public MyComplex eval (Expression ex, MyComplex v1, MyComplex v2)
+            {
+                if (v1 instanceof PitDecimal)
+                {
+                    PitDecimal target = (PitDecimal) v1;
+                    String s = target.getVarToken();
+                    ex.setVariable(s, v2);
+                    return v2;
+                }
+                throw new ExpressionException("LHS not variable");
+            }
+
+            @Override
+            public ValueType resultType (ValueType t1, ValueType t2)
+            {
+                return t2;
+            }
+        });
+
+        addOperator(new Operator("=", 7, false,
+                "Equality", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                if (v1.type == ValueType.REAL && v2.type == ValueType.REAL)
+                {
+                    return new MyComplex(v1.real==v2.real?1:0);
+                }
+                else
+                {
+                    return new MyComplex (v1.abs()==v2.abs()?1:0);
+                }
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 == v2 ? 1 : 0;
+            }
+        });
+
+        addOperator(new Operator("!=", 7, false,
+                "Inequality. See: https://en.wikipedia.org/wiki/Inequality_(mathematics)", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                if (v1.type == ValueType.REAL && v2.type == ValueType.REAL)
+                {
+                    return new MyComplex(v1.real!=v2.real?1:0);
+                }
+                else
+                {
+                    return new MyComplex (v1.abs()!=v2.abs()?1:0);
+                }
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return v1 != v2 ? 1 : 0;
+            }
+        });
+        addOperator(new Operator("or", 7, false,
+                "Bitwise OR. See: https://en.wikipedia.org/wiki/Logical_disjunction", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return new MyComplex((long)v1.real | (long)v2.real);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return (long)v1 | (long)v2;
+            }
+        });
+        addOperator(new Operator("and", 7, false,
+                "Bitwise AND. See: https://en.wikipedia.org/wiki/Logical_conjunction", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return new MyComplex((long)v1.real & (long)v2.real);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return (long)v1 & (long)v2;
+            }
+        });
+        addOperator(new Operator("xor", 7, false,
+                "Bitwise XOR, See: https://en.wikipedia.org/wiki/Exclusive_or", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return new MyComplex((long)v1.real ^ (long)v2.real);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return (long)v1 ^ (long)v2;
+            }
+        });
+
+        addOperator(new Operator("!", 50, true,
+                "Factorial. See https://en.wikipedia.org/wiki/Factorial", ValueType.COMPLEX)
+        {
+            public BigInteger factorial(long n)
+            {
+                BigInteger factorial = BigInteger.ONE;
+                for (long i = 1; i <= n; i++)
+                {
+                    factorial = factorial.multiply(BigInteger.valueOf(i));
+                }
+                return factorial;
+            }
+
+            @Override
+            public boolean isPostfix ()
+            {
+                return true;
+            }
+
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                BigInteger fact = factorial((long)v1.real);
+                return new MyComplex(fact, BigInteger.ZERO);
+            }
+        });
+
+        addOperator(new Operator("~", 8, false,
+                "Bitwise negation", ValueType.REAL)
+        {
+            @Override
+            public boolean isPrefix ()
+            {
+                return true;
+            }
+
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                BigInteger bi = v2.toBigIntegerReal();
+                int c = bi.bitLength();
+                if (c == 0)
+                {
+                    return new MyComplex(1);
+                }
+                for (int s = 0; s < c; s++)
+                {
+                    bi = bi.flipBit(s);
+                }
+                return new MyComplex(bi);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                long v = (long)v2;
+                if (v < 0)
+                {
+                    throw RealNode.NOT_REAL;
+                }
+                if (v == 0)
+                {
+                    return 1;
+                }
+                return v ^ ((Long.highestOneBit(v) << 1) - 1);
+            }
+        });
+
+        addOperator(new Operator("shl", 8, false,
+                "Left Bit shift", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return new MyComplex((long)v1.real << (long)v2.real);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return (long)v1 << (long)v2;
+            }
+        });
+
+        addOperator(new Operator("shr", 8, false,
+                "Right bit shift", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (MyComplex v1, MyComplex v2)
+            {
+                return new MyComplex((long)v1.real >>> (long)v2.real);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return (long)v1 >>> (long)v2;
+            }
+        });
+
+        addFunction(new Function("NOT", 1,
+                "evaluates to 0 if argument != 0", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                boolean zero = parameters.get(0).abs() == 0;
+                return new MyComplex (zero?1:0);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return v == 0 ? 1 : 0;
+            }
+        });
+
+        addFunction(new Function("RND", 2,
+                "Give random number in the range between first and second argument", ValueType.REAL)
+        {
+            @Override
+            public boolean isPure ()
+            {
+                return false;
+            }
+
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double low = parameters.get(0).real;
+                double high = parameters.get(1).real;
+                return new MyComplex(low + Math.random() * (high - low));
+            }
+        });
+
+        MersenneTwister mers = new MersenneTwister(System.nanoTime());
+
+        addFunction(new Function("MRS", 0,
+                "Mersenne twister random generator", ValueType.REAL)
+        {
+            @Override
+            public boolean isPure ()
+            {
+                return false;
+            }
+
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                synchronized (mers)
+                {
+                    return new MyComplex(mers.nextDouble());
+                }
+            }
+        });
+
+        addFunction(new Function("BIN", 2,
+                "Binomial Coefficient 'n choose k'", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                int n = (int)parameters.get(0).real;
+                int k = (int)parameters.get(1).real;
+                double d = CombinatoricsUtils.binomialCoefficientDouble(n, k);
+                return new MyComplex(d);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return CombinatoricsUtils.binomialCoefficientDouble((int)v1, (int)v2);
+            }
+        });
+        addFunction(new Function("STIR", 2,
+                "Stirling number of 2nd kind: http://mathworld.wolfram.com/StirlingNumberoftheSecondKind.html", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                int n = (int)parameters.get(0).real;
+                int k = (int)parameters.get(1).real;
+                double d = CombinatoricsUtils.stirlingS2(n, k);
+                return new MyComplex(d);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return CombinatoricsUtils.stirlingS2((int)v1, (int)v2);
+            }
+        });
+
+        addFunction(new Function("SIN", 1,
+                "Sine function")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).sin();
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return sameType(paramTypes[0]);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return FastMath.sin(v);
+            }
+        });
+        addFunction(new Function("COS", 1,
+                "Cosine function")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).cos();
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return sameType(paramTypes[0]);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return FastMath.cos(v);
+            }
+        });
+        addFunction(new Function("TAN", 1,
+                "Tangent")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).tan();
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return sameType(paramTypes[0]);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                if (Double.isInfinite(v))
+                {
+                    return Double.NaN;
+                }
+                double v2 = 2.0 * v;
+                return FastMath.sin(v2) / (FastMath.cos(v2) + 1.0);
+            }
+        });
+        addFunction(new Function("ASIN", 1,
+                "Reverse Sine")
+        { // added by av
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).asin();
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return sameType(paramTypes[0]);
+            }
+        });
+        addFunction(new Function("ACOS", 1,
+                "Reverse Cosine")
+        { // added by av
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).acos();
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return sameType(paramTypes[0]);
+            }
+        });
+        addFunction(new Function("ATAN", 1,
+                "Reverse Tangent")
+        { // added by av
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).atan();
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return sameType(paramTypes[0]);
+            }
+        });
+        addFunction(new Function("SINH", 1,
+                "Hyperbolic Sine")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).sinh();
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return sameType(paramTypes[0]);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return finite(FastMath.sinh(v));
+            }
+        });
+        addFunction(new Function("COSH", 1,
+                "Hyperbolic Cosine")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).cosh();
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return sameType(paramTypes[0]);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return finite(FastMath.cosh(v));
+            }
+        });
+        addFunction(new Function("TANH", 1,
+                "Hyperbolic Tangent")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).tanh();
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return sameType(paramTypes[0]);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                if (v > 20.0)
+                {
+                    return 1.0;
+                }
+                if (v < -20.0)
+                {
+                    return -1.0;
+                }
+                double v2 = 2.0 * v;
+                return FastMath.sinh(v2) / (FastMath.cosh(v2) + 1.0);
+            }
+        });
+        addFunction(new Function("RAD", 1,
+                "Transform degree to radian", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double d = Math.toRadians(parameters.get(0).real);
+                return new MyComplex(d);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return Math.toRadians(v);
+            }
+        });
+        addFunction(new Function("DEG", 1,
+                "Transform radian to degree", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double d = Math.toDegrees(parameters.get(0).real);
+                return new MyComplex(d);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return Math.toDegrees(v);
+            }
+        });
+        addFunction(new Function("MAX", -1,
+                "Find the biggest value in a list")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                MyComplex save = new MyComplex (Double.MIN_VALUE);
+                if (parameters.size() == 0)
+                {
+                    throw new ExpressionException("MAX requires at least one parameter");
+                }
+                if (parameters instanceof ArithmeticSequence && ((ArithmeticSequence) parameters).isFinite())
+                {
+                    return new MyComplex(Math.max(save.real, ((ArithmeticSequence) parameters).max()));
+                }
+//                if (parameters.get(0).type == ValueType.ARRAY)
+//                    parameters = parameters.get(0).list;
+                if (parameters.get(0).type == ValueType.COMPLEX)
+                {
+                    for (MyComplex parameter : parameters)
+                    {
+                        if (parameter.abs() > save.abs())
+                        {
+                            save = parameter;
+                        }
+                    }
+                    save = new MyComplex(save.real, save.imaginary);
+                }
+                else
+                {
+                    for (MyComplex parameter : parameters)
+                    {
+                        if (parameter.real > save.real)
+                        {
+                            save = parameter;
+                        }
+                    }
+                    save = new MyComplex(save.real);
+                }
+                return save;
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                if (paramTypes.length == 0 || paramTypes[0] == null)
+                {
+                    return null;
+                }
+                return paramTypes[0] == ValueType.COMPLEX ? ValueType.COMPLEX : ValueType.REAL;
+            }
+        });
+///////////////////////////////////////////////////////
+        addFunction(new LazyFunction("IF", 3,
+                "Conditional: give param3 if param1 is 0, otherwise param2", null)
+        {
+            @Override
+            public LazyNumber lazyEval (List<LazyNumber> lazyParams)
+            {
+                MyComplex result = lazyParams.get(0).eval().real == 0.0
+                        ? lazyParams.get(2).eval()
+                        : lazyParams.get(1).eval();
+                return () -> result;
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return paramTypes[1] == paramTypes[2] ? paramTypes[1] : null;
+            }
+        });
+
+        addFunction(new Function("PERC", 2,
+                "Get param1 percent of param2")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).
+                        divide(new MyComplex(100)).
+                        multiply(parameters.get(1));
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return arithmeticType(arithmeticType(paramTypes[0], ValueType.REAL), paramTypes[1]);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return multiply(divide(v1, 100), v2);
+            }
+        });
+
+        addFunction(new Function("PER", 2,
+                "How many percent is param1 of param2")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return parameters.get(0).
+                        multiply(new MyComplex(100)).
+                        divide(parameters.get(1));
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return arithmeticType(arithmeticType(paramTypes[0], ValueType.REAL), paramTypes[1]);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return divide(multiply(v1, 100), v2);
+            }
+        });
+
+        addFunction(new Function("H", 1,
+                "Evaluate _history element")
+        {
+            @Override
+            public boolean isPure ()
+            {
+                return false;
+            }
+
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                throw new ExpressionException("History needs an expression");
+            }
+
+            @Override
+            public MyComplex eval (Expression ex, List<MyComplex> parameters)
+            {
+                int i = (int)parameters.get(0).real;
+                LinkedList<String> history = ex.getHistory();
+                // the variables of a frame are copied for every evaluation,
+                // the copies have no constants and would each be a new key
+                Variables constants = ex.usesFrame() ? null : ex.getVariables();
+                MyComplex result = ExpressionCache.DEFAULT.get(history.get(i), constants, ex.getBuiltins())
+                        .eval(ex.getVariables(), history);
+                // and what it assigns goes back to the frame
+                ex.storeVariables();
+                return result;
+            }
+        });
+
+        addFunction(new Function("MERS", 1,
+                "Calculate Mersenne Number")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                MyComplex p = parameters.get(0);
+                return new MyComplex(2).pow(p).subtract(new MyComplex(1));
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return arithmeticType(ValueType.REAL, paramTypes[0]);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return pow(2, v) - 1;
+            }
+        });
+
+        addFunction(new Function("GCD", 2,
+                "Find greatest common divisor of 2 values", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double a = parameters.get(0).real;
+                double b = parameters.get(1).real;
+                long r = ArithmeticUtils.gcd((long)a, (long)b);
+                return new MyComplex(r);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return ArithmeticUtils.gcd((long)v1, (long)v2);
+            }
+        });
+        addFunction(new Function("LCM", 2,
+                "Find least common multiple of 2 values", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double a = parameters.get(0).real;
+                double b = parameters.get(1).real;
+                long r = ArithmeticUtils.lcm((long)a, (long)b);
+                return new MyComplex(r);
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return ArithmeticUtils.lcm((long)v1, (long)v2);
+            }
+        });
+        addFunction(new Function("AMEAN", -1,
+                "Arithmetic mean of a set of values", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                if (parameters.size() == 0)
+                {
+                    throw new ExpressionException("MEAN requires at least one parameter");
+                }
+                if (parameters instanceof ArithmeticSequence && ((ArithmeticSequence) parameters).isFinite())
+                {
+                    return new MyComplex(((ArithmeticSequence) parameters).mean());
+                }
+                Mean m = new Mean();
+                double[] d = MyComplex.reals(parameters);
+                double d2 = m.evaluate(d);
+                return new MyComplex(d2);
+            }
+        });
+//        addFunction(new Function("BYT", -1,
+//                "Value from sequence of bytes")
+//        {
+//            @Override
+//            public MyComplex eval (List<MyComplex> parameters)
+//            {
+//                if (parameters.size() == 0)
+//                {
+//                    return MyComplex.ZERO;
+//                }
+//                BigInteger res = BigInteger.ZERO;
+//                for (MyComplex parameter : parameters)
+//                {
+//                    if (parameter.intValue() < 0 || parameter.intValue() > 255)
+//                    {
+//                        throw new ExpressionException("not a byte value");
+//                    }
+//                    res = res.shiftLeft(8);
+//                    res = res.or(parameter.toBigInteger());
+//                }
+//                return new MyComplex(res, BigInteger.ZERO);
+//            }
+//        });
+        addFunction(new Function("SEQ", 3,
+                "Generate Sequence p1=start, p2=step, p3=count", ValueType.ARRAY)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return new MyComplex(new ArithmeticSequence(parameters.get(0).real,
+                        parameters.get(1).real, (int)(parameters.get(2).real)));
+            }
+        });
+
+        addFunction(new Function("PROD", -1,
+                "Product of real values", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                if (parameters instanceof ArithmeticSequence)
+                {
+                    return new MyComplex(((ArithmeticSequence) parameters).product());
+                }
+                Product p= new Product();
+                double[] d = MyComplex.reals(parameters);
+                return new MyComplex(p.evaluate(d));
+            }
+        });
+
+        addFunction(new Function("SUM", -1,
+                "Sum of values", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                if (parameters instanceof ArithmeticSequence && ((ArithmeticSequence) parameters).isFinite())
+                {
+                    return new MyComplex(((ArithmeticSequence) parameters).sum());
+                }
+                Sum p= new Sum();
+                double[] d = MyComplex.reals(parameters);
+                return new MyComplex(p.evaluate(d));
+            }
+        });
+
+        addFunction(new Function("ANG", 1,
+                "Angle phi of complex number in radians", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double b = parameters.get(0).angle();
+                return new MyComplex(b);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return FastMath.atan2(0.0, v);
+            }
+        });
+
+        addFunction(new Function("IM", 1,
+                "Get imaginary part", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return new MyComplex(parameters.get(0).imaginary);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return 0.0;
+            }
+        });
+
+        addFunction(new Function("RE", 1,
+                "Get real part", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return new MyComplex(parameters.get(0).real);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return v;
+            }
+        });
+
+        addFunction(new Function("POL", 2,
+                "Make complex number from polar coords. angle is first arg", ValueType.COMPLEX)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double angle = parameters.get(0).real;
+                double len = parameters.get(1).real;
+                Complex c = ComplexUtils.polar2Complex(len, angle);
+                return new MyComplex(c);
+            }
+        });
+
+        addFunction(new Function("GMEAN", -1,
+                "Geometric mean of a set of values", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                if (parameters.size() == 0)
+                {
+                    throw new ExpressionException("MEAN requires at least one parameter");
+                }
+                if (parameters instanceof ArithmeticSequence)
+                {
+                    return new MyComplex(((ArithmeticSequence) parameters).geometricMean());
+                }
+                GeometricMean m = new GeometricMean();
+                double[] d = MyComplex.reals(parameters);
+                double d2 = m.evaluate(d);
+                return new MyComplex(d2);
+            }
+        });
+
+        addFunction(new Function("HMEAN", -1,
+                "Harmonic mean of a set of values", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                if (parameters.size() == 0)
+                {
+                    throw new ExpressionException("MEAN requires at least one parameter");
+                }
+                MyComplex res = new MyComplex(0);
+                int num = 0;
+                for (MyComplex parameter : parameters)
+                {
+                    res = res.add(new MyComplex(1).divide(parameter));
+                    num++;
+                }
+                res = new MyComplex(res.abs());
+                return new MyComplex(num).divide(res);
+            }
+        });
+
+         addFunction(new Function("VAR", -1,
+                "Variance of a set of values", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                if (parameters.size() == 0)
+                {
+                    throw new ExpressionException("MEAN requires at least one parameter");
+                }
+                if (parameters instanceof ArithmeticSequence && ((ArithmeticSequence) parameters).isFinite())
+                {
+                    return new MyComplex(((ArithmeticSequence) parameters).variance());
+                }
+                return new MyComplex(variance(MyComplex.reals(parameters)));
+            }
+        });
+
+        addFunction(new Function("NPR", 1,
+                "Next prime number greater or equal the argument", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return new MyComplex(nextPrime((int)parameters.get(0).real));
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return nextPrime((int)v);
+            }
+        });
+
+        addFunction(new Function("NSWP", 1,
+                "Swap nibbles", ValueType.COMPLEX)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                BigInteger bi = parameters.get(0).toBigIntegerReal();
+                String s = bi.toString(16);
+                s = new StringBuilder(s).reverse().toString();
+                return new MyComplex(new BigInteger(s, 16), BigInteger.ZERO);
+            }
+        });
+
+        addFunction(new Function("BSWP", 1,
+                "Swap bytes", ValueType.COMPLEX)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                BigInteger bi = parameters.get(0).toBigIntegerReal();
+                String s = bi.toString(16);
+                while (s.length() % 4 != 0)
+                {
+                    s = s + "0";
+                }
+                if (bi.intValue() < 256)
+                {
+                    s = "00" + s;
+                }
+                s = Misc.reverseHex(s);
+                return new MyComplex(new BigInteger(s, 16), BigInteger.ZERO);
+            }
+        });
+
+        addFunction(new Function("PYT", 2,
+                "Pythagoras's result = sqrt(param1^2+param2^2) https://en.wikipedia.org/wiki/Pythagorean_theorem", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> par)
+            {
+                double a = par.get(0).real;
+                double b = par.get(1).real;
+                return new MyComplex(Math.sqrt(a * a + b * b));
+            }
+
+            @Override
+            public double evalReal (double v1, double v2)
+            {
+                return Math.sqrt(v1 * v1 + v2 * v2);
+            }
+        });
+
+        addFunction(new Function("FIB", 1,
+                "Fibonacci number", ValueType.COMPLEX)
+        {
+            // --Commented out by Inspection (2/19/2017 7:46 PM):private final Operator exp = operators.get("^");
+
+            @Override
+            public MyComplex eval (List<MyComplex> par)
+            {
+                return Misc.iterativeFibonacci((int)par.get(0).real);
+            }
+        });
+
+        ///////////////////////////////////////////////
+
+        addFunction(new Function("MIN", -1,
+                "Find the smallest in a list of values")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                MyComplex save = new MyComplex (Double.MAX_VALUE);
+                if (parameters.size() == 0)
+                {
+                    throw new ExpressionException("MAX requires at least one parameter");
+                }
+                if (parameters instanceof ArithmeticSequence && ((ArithmeticSequence) parameters).isFinite())
+                {
+                    return new MyComplex(Math.min(save.real, ((ArithmeticSequence) parameters).min()));
+                }
+                if (parameters.get(0).type == ValueType.COMPLEX)
+                {
+                    for (MyComplex parameter : parameters)
+                    {
+                        if (parameter.abs() < save.abs())
+                        {
+                            save = parameter;
+                        }
+                    }
+                    save = new MyComplex(save.real, save.imaginary);
+                }
+                else
+                {
+                    for (MyComplex parameter : parameters)
+                    {
+                        if (parameter.real < save.real)
+                        {
+                            save = parameter;
+                        }
+                    }
+                    save = new MyComplex(save.real);
+                }
+                return save;
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                if (paramTypes.length == 0 || paramTypes[0] == null)
+                {
+                    return null;
+                }
+                return paramTypes[0] == ValueType.COMPLEX ? ValueType.COMPLEX : ValueType.REAL;
+            }
+        });
+        addFunction(new Function("ABS", 1,
+                "Get absolute value of a number", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return new MyComplex(parameters.get(0).abs());
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return Math.abs(v);
+            }
+        });
+        addFunction(new Function("LN", 1,
+                "Logarithm base e of the argument", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double d = Math.log(parameters.get(0).real);
+                return new MyComplex(d);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return Math.log(v);
+            }
+        });
+        addFunction(new Function("LOG", 1,
+                "Logarithm base 10 of the argument", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double d = Math.log10(parameters.get(0).real);
+                return new MyComplex(d);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return Math.log10(v);
+            }
+        });
+        addFunction(new Function("FLOOR", 1,
+                "Rounds DOWN to nearest Integer", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double d = Math.floor(parameters.get(0).real);
+                return new MyComplex(d);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return Math.floor(v);
+            }
+        });
+        addFunction(new Function("CEIL", 1,
+                "Rounds UP to nearest Integer", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double d = Math.ceil(parameters.get(0).real);
+                return new MyComplex(d);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return Math.ceil(v);
+            }
+        });
+        addFunction(new Function("ROU", 1,
+                "Rounds to nearest Integer", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                int d = (int)(parameters.get(0).real+0.5);
+                return new MyComplex(d);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return (int)(v + 0.5);
+            }
+        });
+        addFunction(new Function("SQRT", 1,
+                "Square root")
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                MyComplex p = parameters.get(0);
+                if (p.type == ValueType.REAL)
+                {
+                    return new MyComplex(Math.sqrt(p.real));
+                }
+                return p.sqrt();
+            }
+
+            @Override
+            public ValueType resultType (ValueType... paramTypes)
+            {
+                return sameType(paramTypes[0]);
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                return Math.sqrt(v);
+            }
+        });
+        addFunction(new Function("ARR", -1,
+                "Create array", ValueType.ARRAY)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return new MyComplex(parameters);
+            }
+        });
+        addFunction(new Function("POLY", -1,
+                "Treat array as Polynom", ValueType.ARRAY)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                double[] d = MyComplex.reals(parameters);
+                PolynomialFunction p = new PolynomialFunction(d);
+                return new MyComplex(p);
+            }
+        });
+        addFunction(new Function("DRVE", -1,
+                "Make derivative of polynomial", ValueType.ARRAY)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                PolynomialFunction p;
+                if (parameters.get(0).isPoly())
+                {
+                    p = new PolynomialFunction(parameters.get(0).getRealArray());
+                }
+                else
+                {
+                    double[] d = MyComplex.reals(parameters);
+                    p = new PolynomialFunction(d);
+                }
+                return new MyComplex(p.polynomialDerivative());
+            }
+        });
+        addFunction(new Function("ADRVE", -1,
+                "Make antiderivative of polynomial. Constant is always zero", ValueType.ARRAY)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                PolynomialFunction p;
+                if (parameters.get(0).isPoly())
+                {
+                    p = new PolynomialFunction(parameters.get(0).getRealArray());
+                }
+                else
+                {
+                    double[] d = MyComplex.reals(parameters);
+                    p = new PolynomialFunction(d);
+                }
+                return new MyComplex(Misc.antiDerive(p));
+            }
+        });
+
+        addFunction(new Function("PVAL", 2,
+                "Compute value of polynom for the given argument.", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                if (parameters.get(0).isPoly())
+                {
+                    PolynomialFunction p = new PolynomialFunction(parameters.get(0).getRealArray());
+                    double v = p.value(parameters.get(1).real);
+                    return new MyComplex(v);
+                }
+                throw new ExpressionException("first arg must be polynomial");
+            }
+        });
+
+        addFunction(new Function("INTGR", 3,
+                "Numerical integration", ValueType.REAL)
+        {
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                if (parameters.get(0).isPoly())
+                {
+                    PolynomialFunction p = new PolynomialFunction(parameters.get(0).getRealArray());
+                    double start = parameters.get(1).real;
+                    double end = parameters.get(2).real;
+                    SimpsonIntegrator si = new SimpsonIntegrator();
+                    double d = si.integrate(1000, p, start, end);
+                    return new MyComplex(d);
+                }
+                throw new ExpressionException("first arg must be polynomial");
+            }
+        });
+
+        // the built-ins that don't override isPure() are pure, operators
+        // and functions added by users are not
+        operators.values().forEach(o -> o.pure = true);
+        functions.values().forEach(f -> f.pure = true);
+        operatorTrie = new Lexer.Trie(operators.values());
+    }
+
+    private Builtins (Map<String, Operator> ops, Map<String, LazyFunction> funcs)
+    {
+        operators = ops;
+        functions = funcs;
+        opsView = Collections.unmodifiableMap(operators);
+        funcsView = Collections.unmodifiableMap(functions);
+        operatorTrie = new Lexer.Trie(operators.values());
+    }
+
+    /**
+     * Adds an operator while the set is being built.
+     *
+     * @param operator The operator to add.
+     */
+    private void addOperator (Operator operator)
+    {
+        operators.put(operator.getName(), operator);
+    }
+
+    /**
+     * Adds a function while the set is being built.
+     *
+     * @param function The function to add.
+     */
+    private void addFunction (LazyFunction function)
+    {
+        functions.put(function.getName(), function);
+    }
+
+    /**
+     * Type of the result of {@link MyComplex} arithmetic: real if both
+     * operands are real, complex otherwise.
+     *
+     * @return The result type, <code>null</code> if an operand is an array
+     * or of unknown type.
+     */
+    private static ValueType arithmeticType (ValueType t1, ValueType t2)
+    {
+        if (t1 == null || t2 == null || t1 == ValueType.ARRAY || t2 == ValueType.ARRAY)
+        {
+            return null;
+        }
+        return t1 == ValueType.REAL && t2 == ValueType.REAL ? ValueType.REAL : ValueType.COMPLEX;
+    }
+
+    /**
+     * Type of the result of element-wise operators: an array if an operand
+     * is one, else like {@link #arithmeticType}.
+     */
+    private static ValueType elementwiseType (ValueType t1, ValueType t2)
+    {
+        if (t1 == ValueType.ARRAY || t2 == ValueType.ARRAY)
+        {
+            return ValueType.ARRAY;
+        }
+        return arithmeticType(t1, t2);
+    }
+
+    /**
+     * Type of the result of functions that keep the type of their argument.
+     */
+    private static ValueType sameType (ValueType t)
+    {
+        return t == ValueType.REAL || t == ValueType.COMPLEX ? t : null;
+    }
+
+    /**
+     * Real multiplication giving the same results as {@link MyComplex#multiply}.
+     * Infinite operands are left to the complex evaluation.
+     */
+    private static double multiply (double v1, double v2)
+    {
+        if (Double.isNaN(v1) || Double.isNaN(v2))
+        {
+            return Double.NaN;
+        }
+        if (Double.isInfinite(v1) || Double.isInfinite(v2))
+        {
+            throw RealNode.NOT_REAL;   // complex infinity
+        }
+        return v1 * v2;
+    }
+
+    /**
+     * Real division giving the same results as {@link MyComplex#divide},
+     * including the sign of zero results.
+     */
+    private static double divide (double v1, double v2)
+    {
+        if (v2 == 0.0 || Double.isNaN(v1) || Double.isNaN(v2))
+        {
+            return Double.NaN;
+        }
+        if (Double.isInfinite(v1))
+        {
+            throw RealNode.NOT_REAL;   // imaginary part is NaN
+        }
+        if (Double.isInfinite(v2))
+        {
+            return 0.0;
+        }
+        double q = 0.0 / v2;
+        return (0.0 * q + v1) / (0.0 * q + v2);
+    }
+
+    /**
+     * Passes finite results of real implementations whose complex
+     * counterpart gives a NaN imaginary part for infinite results.
+     */
+    private static double finite (double v)
+    {
+        if (Double.isInfinite(v))
+        {
+            throw RealNode.NOT_REAL;
+        }
+        return v;
+    }
+
+    /**
+     * Real power giving the same results as {@link MyComplex#pow}, which
+     * computes <code>exp(log(v1) * v2)</code>. Bases that are not positive
+     * or infinite operands are left to the complex evaluation.
+     */
+    private static double pow (double v1, double v2)
+    {
+        if (!(v1 > 0.0) || Double.isInfinite(v1) || Double.isInfinite(v2))
+        {
+            throw RealNode.NOT_REAL;
+        }
+        return finite(FastMath.exp(FastMath.log(v1) * v2));
+    }
+
+    /**
+     * Creates a new set containing all operators and functions of this one
+     * plus the given operator. This set is left unchanged.
+     *
+     * @param operator The operator to add, replaces one with the same name.
+     * @return The new set.
+     */
+    public Builtins withOperator (Operator operator)
+    {
+        Map<String, Operator> ops = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        ops.putAll(operators);
+        ops.put(operator.getName(), operator);
+        return new Builtins(ops, functions);
+    }
+
+    /**
+     * Creates a new set containing all operators and functions of this one
+     * plus the given function. This set is left unchanged.
+     *
+     * @param function The function to add, replaces one with the same name.
+     * @return The new set.
+     */
+    public Builtins withFunction (LazyFunction function)
+    {
+        Map<String, LazyFunction> funcs = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        funcs.putAll(functions);
+        funcs.put(function.getName(), function);
+        return new Builtins(operators, funcs);
+    }
+
+    public Map<String, Operator> getOps ()
+    {
+        return opsView;
+    }
+
+    public Map<String, LazyFunction> getFuncs ()
+    {
+        return funcsView;
+    }
+
+    Lexer.Trie getOperatorTrie ()
+    {
+        return operatorTrie;
+    }
+}
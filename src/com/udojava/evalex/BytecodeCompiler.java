@@ -0,0 +1,517 @@
+package com.udojava.evalex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates a compiled expression into a JVM class that evaluates the
+ * node tree as straight-line code. The operator and function objects are
+ * kept in final fields of a hidden class, so the JIT treats them as
+ * constants and can inline their implementation.
+ * <p>
+ * Needs a Java 15 runtime for <code>Lookup.defineHiddenClass</code>, on older
+ * runtimes {@link #compile} always returns <code>null</code>.
+ */
+final class BytecodeCompiler
+{
+    private static final String NODE = "com/udojava/evalex/Node";
+    private static final String GENERATED = "com/udojava/evalex/Node$Generated";
+    private static final String EXPRESSION = "com/udojava/evalex/Expression";
+    private static final String MYCOMPLEX = "com/udojava/evalex/MyComplex";
+    private static final String OPERATOR = "com/udojava/evalex/Operator";
+    private static final String FUNCTION = "com/udojava/evalex/Function";
+
+    private static final Method DEFINE_HIDDEN;
+    private static final Object NO_OPTIONS;
+
+    static
+    {
+        Method m;
+        Object options;
+        try
+        {
+            Class<?> optionClass = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            options = Array.newInstance(optionClass, 0);
+            m = MethodHandles.Lookup.class.getMethod("defineHiddenClass",
+                    byte[].class, boolean.class, options.getClass());
+        }
+        catch (ReflectiveOperationException e)
+        {
+            m = null;  // runtime older than Java 15
+            options = null;
+        }
+        DEFINE_HIDDEN = m;
+        NO_OPTIONS = options;
+    }
+
+    // Opcodes
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD = 0x19;
+    private static final int ASTORE = 0x3a;
+    private static final int AALOAD = 0x32;
+    private static final int AASTORE = 0x53;
+    private static final int DUP = 0x59;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETFIELD = 0xb4;
+    private static final int PUTFIELD = 0xb5;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int ANEWARRAY = 0xbd;
+    private static final int CHECKCAST = 0xc0;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+
+    private static final int MAX_CODE = 65535;
+    private static final int MAX_CONSTANTS = Short.MAX_VALUE;
+    private static final int MAX_LOCALS = 255;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+    private final List<Object> constants = new ArrayList<>();
+    private final List<String> constantTypes = new ArrayList<>();
+    private int stack = 0;
+    private int maxStack = 0;
+    /**
+     * Local variables holding the values of shared nodes, after
+     * <code>this</code> and the expression.
+     */
+    private final Map<Node, Integer> locals = new IdentityHashMap<>();
+
+    private BytecodeCompiler ()
+    {
+    }
+
+    /**
+     * Generates and loads a class that evaluates the given node tree.
+     *
+     * @param root The root of the interpreted expression.
+     * @return An equivalent node backed by generated code, or <code>null</code>
+     * if the tree contains constructs that are only interpreted or the
+     * runtime can't define hidden classes.
+     */
+    static Node compile (Node root)
+    {
+        if (DEFINE_HIDDEN == null || !isCompilable(root))
+        {
+            return null;
+        }
+        BytecodeCompiler bc = new BytecodeCompiler();
+        byte[] bytes = bc.generate(root);
+        if (bytes == null)
+        {
+            return null;
+        }
+        try
+        {
+            MethodHandles.Lookup l = (MethodHandles.Lookup) DEFINE_HIDDEN.invoke(
+                    MethodHandles.lookup(), bytes, true, NO_OPTIONS);
+            Node.Generated generated = (Node.Generated) l.lookupClass()
+                    .getDeclaredConstructor(Object[].class)
+                    .newInstance((Object) bc.constants.toArray());
+            generated.source = root;
+            return generated;
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new ExpressionException("Bytecode generation failed: " + e);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the runtime can load generated classes,
+     * from Java 15 on.
+     */
+    static boolean isAvailable ()
+    {
+        return DEFINE_HIDDEN != null;
+    }
+
+    /**
+     * Assignments and operators or functions that need the evaluating
+     * expression (<code>-&gt;</code>, <code>H</code>) are left to the
+     * interpreter.
+     */
+    static boolean isCompilable (Node n)
+    {
+        if (n instanceof Node.Literal || n instanceof Node.Var || isLazy(n))
+        {
+            return true;
+        }
+        if (n instanceof Node.Shared)
+        {
+            return isCompilable(((Node.Shared) n).node);
+        }
+        if (n instanceof Node.Op)
+        {
+            Node.Op op = (Node.Op) n;
+            return !Mathobject.overrides(op.op.getClass(), Operator.class, "eval",
+                    Expression.class, MyComplex.class, MyComplex.class)
+                    && isCompilable(op.left) && isCompilable(op.right);
+        }
+        if (n instanceof Node.Call)
+        {
+            Node.Call call = (Node.Call) n;
+            if (Mathobject.overrides(call.function.getClass(), Function.class, "eval",
+                    Expression.class, List.class))
+            {
+                return false;
+            }
+            for (Node p : call.params)
+            {
+                if (!isCompilable(p))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Lazy operators and functions decide at run time which operands they
+     * evaluate, which straight-line code can't express. They are called as
+     * interpreted subtrees.
+     */
+    static boolean isLazy (Node n)
+    {
+        if (n instanceof Node.Op)
+        {
+            return ((Node.Op) n).op instanceof LazyOperator;
+        }
+        if (n instanceof Node.Call)
+        {
+            LazyFunction f = ((Node.Call) n).function;
+            return !(f instanceof Function)
+                    || Mathobject.overrides(f.getClass(), Function.class, "lazyEval",
+                    Expression.class, List.class);
+        }
+        return false;
+    }
+
+    private byte[] generate (Node root)
+    {
+        emitNode(root);
+        op(ARETURN, -1);
+        if (code.size() > MAX_CODE || constants.size() > MAX_CONSTANTS
+                || 2 + locals.size() > MAX_LOCALS)
+        {
+            return null;
+        }
+        byte[] evalCode = code.toByteArray();
+        int evalStack = maxStack;
+
+        code.reset();
+        stack = 0;
+        maxStack = 0;
+        op(ALOAD_0, 1);
+        methodOp(INVOKESPECIAL, GENERATED, "<init>", "()V", -1);
+        for (int n = 0; n < constants.size(); n++)
+        {
+            op(ALOAD_0, 1);
+            op(ALOAD_1, 1);
+            push(n);
+            op(AALOAD, -1);
+            u1(CHECKCAST);
+            u2(pool.classRef(constantTypes.get(n)));
+            fieldOp(PUTFIELD, n, -2);
+        }
+        op(RETURN, 0);
+        byte[] initCode = code.toByteArray();
+        int initStack = maxStack;
+
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int thisClass = pool.classRef(NODE + "$Compiled");
+            int superClass = pool.classRef(GENERATED);
+            int codeName = pool.utf8("Code");
+            int initName = pool.utf8("<init>");
+            int initDesc = pool.utf8("([Ljava/lang/Object;)V");
+            int evalName = pool.utf8("eval");
+            int evalDesc = pool.utf8("(L" + EXPRESSION + ";)L" + MYCOMPLEX + ";");
+            int[] fieldNames = new int[constants.size()];
+            int[] fieldDescs = new int[constants.size()];
+            for (int n = 0; n < constants.size(); n++)
+            {
+                fieldNames[n] = pool.utf8("c" + n);
+                fieldDescs[n] = pool.utf8("L" + constantTypes.get(n) + ";");
+            }
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52);   // Java 8 class file, straight-line code needs no stack map
+            pool.write(out);
+            out.writeShort(0x0030);   // final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);   // interfaces
+            out.writeShort(constants.size());
+            for (int n = 0; n < constants.size(); n++)
+            {
+                out.writeShort(0x0012);   // private final
+                out.writeShort(fieldNames[n]);
+                out.writeShort(fieldDescs[n]);
+                out.writeShort(0);
+            }
+            out.writeShort(2);
+            writeMethod(out, 0x0001, initName, initDesc, codeName, initStack, 2, initCode);
+            writeMethod(out, 0x0000, evalName, evalDesc, codeName, evalStack, 2 + locals.size(), evalCode);
+            out.writeShort(0);   // class attributes
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new ExpressionException("Bytecode generation failed: " + e);
+        }
+    }
+
+    private static void writeMethod (DataOutputStream out, int access, int name, int desc,
+                                     int codeName, int maxStack, int maxLocals, byte[] code) throws IOException
+    {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(desc);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0);   // exception table
+        out.writeShort(0);   // code attributes
+    }
+
+    /**
+     * Emits code that leaves the value of the node on the operand stack.
+     * The code is straight-line, so the first use of a shared node always
+     * runs before the others and can store the value in a local variable.
+     */
+    private void emitNode (Node n)
+    {
+        if (n instanceof Node.Shared)
+        {
+            Integer local = locals.get(n);
+            if (local != null)
+            {
+                op(ALOAD, 1);
+                u1(local);
+            }
+            else
+            {
+                local = 2 + locals.size();
+                locals.put(n, local);
+                emitNode(((Node.Shared) n).node);
+                op(DUP, 1);
+                op(ASTORE, -1);
+                u1(local);
+            }
+        }
+        else if (n instanceof Node.Literal)
+        {
+            loadConstant(((Node.Literal) n).value, MYCOMPLEX);
+        }
+        else if (isLazy(n))
+        {
+            loadConstant(n, NODE);
+            op(ALOAD_1, 1);
+            methodOp(INVOKEVIRTUAL, NODE, "eval", "(L" + EXPRESSION + ";)L" + MYCOMPLEX + ";", -1);
+        }
+        else if (n instanceof Node.Var)
+        {
+            Node.Var v = (Node.Var) n;
+            op(ALOAD_1, 1);
+            push(v.slot);
+            u1(LDC_W);
+            u2(pool.string(v.name));
+            grow(1);
+            methodOp(INVOKEVIRTUAL, EXPRESSION, "getVariable", "(ILjava/lang/String;)L" + MYCOMPLEX + ";", -2);
+        }
+        else if (n instanceof Node.Op)
+        {
+            Node.Op o = (Node.Op) n;
+            loadConstant(o.op, OPERATOR);
+            op(ALOAD_1, 1);
+            emitNode(o.left);
+            emitNode(o.right);
+            methodOp(INVOKEVIRTUAL, OPERATOR, "eval",
+                    "(L" + EXPRESSION + ";L" + MYCOMPLEX + ";L" + MYCOMPLEX + ";)L" + MYCOMPLEX + ";", -3);
+        }
+        else
+        {
+            Node.Call c = (Node.Call) n;
+            loadConstant(c.function, FUNCTION);
+            op(ALOAD_1, 1);
+            push(c.params.length);
+            u1(ANEWARRAY);
+            u2(pool.classRef(MYCOMPLEX));
+            for (int p = 0; p < c.params.length; p++)
+            {
+                op(DUP, 1);
+                push(p);
+                emitNode(c.params[p]);
+                op(AASTORE, -3);
+            }
+            methodOp(INVOKESTATIC, "java/util/Arrays", "asList",
+                    "([Ljava/lang/Object;)Ljava/util/List;", 0);
+            methodOp(INVOKEVIRTUAL, FUNCTION, "evalParams",
+                    "(L" + EXPRESSION + ";Ljava/util/List;)L" + MYCOMPLEX + ";", -2);
+        }
+    }
+
+    private void loadConstant (Object value, String type)
+    {
+        constants.add(value);
+        constantTypes.add(type);
+        op(ALOAD_0, 1);
+        fieldOp(GETFIELD, constants.size() - 1, 0);
+    }
+
+    private void fieldOp (int opcode, int index, int delta)
+    {
+        u1(opcode);
+        u2(pool.fieldRef(NODE + "$Compiled", "c" + index, "L" + constantTypes.get(index) + ";"));
+        grow(delta);
+    }
+
+    private void methodOp (int opcode, String owner, String name, String desc, int delta)
+    {
+        u1(opcode);
+        u2(pool.methodRef(owner, name, desc));
+        grow(delta);
+    }
+
+    private void push (int value)
+    {
+        u1(SIPUSH);
+        u2(value);
+        grow(1);
+    }
+
+    private void op (int opcode, int delta)
+    {
+        u1(opcode);
+        grow(delta);
+    }
+
+    private void grow (int delta)
+    {
+        stack += delta;
+        maxStack = Math.max(maxStack, stack);
+    }
+
+    private void u1 (int b)
+    {
+        code.write(b);
+    }
+
+    private void u2 (int s)
+    {
+        code.write(s >>> 8);
+        code.write(s);
+    }
+
+    /**
+     * Class file constant pool, entries are shared by content.
+     */
+    private static final class ConstantPool
+    {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8 (String s)
+        {
+            Integer i = entries.get("U" + s);
+            if (i != null)
+            {
+                return i;
+            }
+            try
+            {
+                out.writeByte(1);
+                out.writeUTF(s);
+            }
+            catch (IOException e)
+            {
+                throw new ExpressionException("Bytecode generation failed: " + e);
+            }
+            return add("U" + s);
+        }
+
+        int classRef (String name)
+        {
+            return ref("C" + name, 7, utf8(name), -1);
+        }
+
+        int string (String s)
+        {
+            return ref("S" + s, 8, utf8(s), -1);
+        }
+
+        int fieldRef (String owner, String name, String desc)
+        {
+            return ref("F" + owner + '.' + name + desc, 9, classRef(owner), nameAndType(name, desc));
+        }
+
+        int methodRef (String owner, String name, String desc)
+        {
+            return ref("M" + owner + '.' + name + desc, 10, classRef(owner), nameAndType(name, desc));
+        }
+
+        private int nameAndType (String name, String desc)
+        {
+            return ref("N" + name + desc, 12, utf8(name), utf8(desc));
+        }
+
+        private int ref (String key, int tag, int a, int b)
+        {
+            Integer i = entries.get(key);
+            if (i != null)
+            {
+                return i;
+            }
+            try
+            {
+                out.writeByte(tag);
+                out.writeShort(a);
+                if (b >= 0)
+                {
+                    out.writeShort(b);
+                }
+            }
+            catch (IOException e)
+            {
+                throw new ExpressionException("Bytecode generation failed: " + e);
+            }
+            return add(key);
+        }
+
+        private int add (String key)
+        {
+            entries.put(key, count);
+            return count++;
+        }
+
+        void write (DataOutputStream dest) throws IOException
+        {
+            dest.writeShort(count);
+            dest.write(bytes.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package com.udojava.evalex;
+
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An expression compiled once by {@link Expression#compile} that can be
+ * evaluated by many threads at the same time. It has no variables of its
+ * own; every evaluation reads and assigns the variables it is given, so
+ * threads sharing one compiled expression each pass their own.
+ * <p>
+ * Constants (see {@link Variables#putConstant}) are folded in with the
+ * values they had when the expression was compiled. Variables missing from
+ * the variables given to an evaluation read as 0.
+ */
+public final class CompiledExpression
+{
+    /**
+     * History for evaluations that don't pass one, never modified.
+     */
+    private static final LinkedList<String> NO_HISTORY = new LinkedList<>();
+
+    private final String expression;
+    private final Builtins builtins;
+    /**
+     * What an evaluation runs, the nodes hold no state of their own.
+     */
+    final Node plan;
+    final int sharedSlots;
+    final int eliminatedNodes;
+    /**
+     * Whether the plan only has pure operators and functions.
+     */
+    private final boolean pure;
+    /**
+     * Names of the variables by slot.
+     */
+    private final String[] variableNames;
+    /**
+     * Values of the variables when the expression was compiled, new frames
+     * start with them.
+     */
+    private final MyComplex[] initialValues;
+    private final Map<String, Integer> slots = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    /**
+     * Rough size in memory, for {@link ExpressionCache}.
+     */
+    private final long estimatedBytes;
+
+    CompiledExpression (String expression, Builtins builtins, Node plan, int sharedSlots, int eliminatedNodes,
+                        String[] variableNames, MyComplex[] initialValues)
+    {
+        this.expression = expression;
+        this.builtins = builtins;
+        this.plan = plan;
+        this.sharedSlots = sharedSlots;
+        this.eliminatedNodes = eliminatedNodes;
+        this.pure = Optimizer.isPure(plan);
+        this.variableNames = variableNames;
+        this.initialValues = initialValues;
+        long size = 64 + 48L * expression.length();   // about a node per character
+        for (int slot = 0; slot < variableNames.length; slot++)
+        {
+            slots.put(variableNames[slot], slot);
+            size += 64 + valueBytes(initialValues[slot]);
+        }
+        estimatedBytes = size;
+    }
+
+    private static long valueBytes (MyComplex v)
+    {
+        if (v == null || v.list == null || v.list instanceof ArithmeticSequence)
+        {
+            return 40;
+        }
+        if (v.list instanceof PackedArray)
+        {
+            return (((PackedArray) v.list).isReal() ? 8L : 16L) * v.list.size();
+        }
+        long size = 40;
+        for (MyComplex e : v.list)
+        {
+            size += 8 + valueBytes(e);
+        }
+        return size;
+    }
+
+    /**
+     * Creates a frame for the variables of this expression, holding the
+     * values they had when it was compiled.
+     *
+     * @return The new frame.
+     */
+    public Frame newFrame ()
+    {
+        return new Frame(this, initialValues);
+    }
+
+    /**
+     * Tells the slot of a variable in the frames of this expression.
+     *
+     * @param name The variable name.
+     * @return The slot, or -1 if the expression doesn't use the variable.
+     */
+    public int getSlot (String name)
+    {
+        Integer slot = slots.get(name);
+        return slot != null ? slot : -1;
+    }
+
+    /**
+     * @return The names of the variables this expression uses, by slot.
+     */
+    public String[] getVariableNames ()
+    {
+        return variableNames.clone();
+    }
+
+    /**
+     * Evaluates the expression with the variables in a frame.
+     *
+     * @param frame The variables to read and assign, must be created by
+     *              this expression.
+     * @return The result of the expression.
+     */
+    public MyComplex eval (Frame frame)
+    {
+        return eval(frame, NO_HISTORY);
+    }
+
+    /**
+     * Evaluates the expression with the variables in a frame.
+     *
+     * @param frame   The variables to read and assign, must be created by
+     *                this expression.
+     * @param history The history <code>H</code> reads. Its items assign
+     *                the variables of the frame too, and fail with an
+     *                {@link ExpressionException} for variables this
+     *                expression doesn't use.
+     * @return The result of the expression.
+     */
+    public MyComplex eval (Frame frame, LinkedList<String> history)
+    {
+        return new Expression(this, history, checkFrame(frame)).eval();
+    }
+
+    /**
+     * Evaluates the expression to a real number with the variables in a
+     * frame. Real expressions on real inputs only create the context of
+     * the evaluation.
+     *
+     * @param frame The variables to read and assign, must be created by
+     *              this expression.
+     * @return The real part of the result of the expression.
+     */
+    public double evalReal (Frame frame)
+    {
+        return new Expression(this, NO_HISTORY, checkFrame(frame)).evalReal();
+    }
+
+    /**
+     * Evaluates the expression once per row of input columns, e.g. for
+     * <code>a*b</code> with the columns of <code>a</code> and <code>b</code>.
+     * Real expressions on real inputs run without creating objects per row.
+     *
+     * @param names   The variables the columns are for.
+     * @param columns One column per variable, each as long as the results.
+     * @param results Receives the real part of each result.
+     */
+    public void evalColumns (String[] names, double[][] columns, double[] results)
+    {
+        evalRows(columnSlots(names, columns, results.length), columns, results, null, 0, results.length);
+    }
+
+    /**
+     * Evaluates the expression once per row of input columns, keeping
+     * complex results.
+     *
+     * @param names       The variables the columns are for.
+     * @param columns     One column per variable, each as long as the results.
+     * @param reals       Receives the real part of each result.
+     * @param imaginaries Receives the imaginary part of each result.
+     */
+    public void evalColumns (String[] names, double[][] columns, double[] reals, double[] imaginaries)
+    {
+        checkResults(reals, imaginaries);
+        evalRows(columnSlots(names, columns, reals.length), columns, reals, imaginaries, 0, reals.length);
+    }
+
+    /**
+     * Like {@link #evalColumns(String[], double[][], double[])}, but splits
+     * the rows into chunks that are evaluated in parallel. The results are
+     * in the order of the rows. Expressions with impure operators or
+     * functions, such as <code>-&gt;</code> or <code>RND</code>, are
+     * rejected, since their result would depend on the order of the rows.
+     *
+     * @param names     The variables the columns are for.
+     * @param columns   One column per variable, each as long as the results.
+     * @param results   Receives the real part of each result.
+     * @param pool      The pool to run on, its parallelism sets the number
+     *                  of threads.
+     * @param chunkSize The most rows one task evaluates.
+     */
+    public void evalColumns (String[] names, double[][] columns, double[] results,
+                             ForkJoinPool pool, int chunkSize)
+    {
+        int[] slots = columnSlots(names, columns, results.length);
+        checkParallel(chunkSize);
+        pool.invoke(new Rows(slots, columns, results, null, 0, results.length, chunkSize));
+    }
+
+    /**
+     * Like {@link #evalColumns(String[], double[][], double[], ForkJoinPool, int)},
+     * keeping complex results.
+     *
+     * @param names       The variables the columns are for.
+     * @param columns     One column per variable, each as long as the results.
+     * @param reals       Receives the real part of each result.
+     * @param imaginaries Receives the imaginary part of each result.
+     * @param pool        The pool to run on.
+     * @param chunkSize   The most rows one task evaluates.
+     */
+    public void evalColumns (String[] names, double[][] columns, double[] reals, double[] imaginaries,
+                             ForkJoinPool pool, int chunkSize)
+    {
+        checkResults(reals, imaginaries);
+        int[] slots = columnSlots(names, columns, reals.length);
+        checkParallel(chunkSize);
+        pool.invoke(new Rows(slots, columns, reals, imaginaries, 0, reals.length, chunkSize));
+    }
+
+    /**
+     * Evaluates a range of rows with one frame and one context.
+     *
+     * @param imaginaries <code>null</code> to only keep the real parts.
+     */
+    private void evalRows (int[] slots, double[][] columns, double[] reals, double[] imaginaries,
+                           int from, int to)
+    {
+        Frame frame = newFrame();
+        Expression context = new Expression(this, NO_HISTORY, frame);
+        for (int row = from; row < to; row++)
+        {
+            for (int c = 0; c < slots.length; c++)
+            {
+                frame.setReal(slots[c], columns[c][row]);
+            }
+            if (imaginaries == null)
+            {
+                reals[row] = context.evalReal();
+            }
+            else
+            {
+                MyComplex v = context.eval();
+                reals[row] = v.real;
+                imaginaries[row] = v.imaginary;
+            }
+        }
+    }
+
+    /**
+     * Evaluates a range of rows, split in halves until they fit in a chunk.
+     */
+    private final class Rows extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] slots;
+        private final double[][] columns;
+        private final double[] reals;
+        private final double[] imaginaries;
+        private final int from;
+        private final int to;
+        private final int chunkSize;
+
+        Rows (int[] slots, double[][] columns, double[] reals, double[] imaginaries, int from, int to,
+              int chunkSize)
+        {
+            this.slots = slots;
+            this.columns = columns;
+            this.reals = reals;
+            this.imaginaries = imaginaries;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute ()
+        {
+            if (to - from <= chunkSize)
+            {
+                evalRows(slots, columns, reals, imaginaries, from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Rows(slots, columns, reals, imaginaries, from, middle, chunkSize),
+                    new Rows(slots, columns, reals, imaginaries, middle, to, chunkSize));
+        }
+    }
+
+    private void checkParallel (int chunkSize)
+    {
+        if (chunkSize < 1)
+        {
+            throw new ExpressionException("Chunk size must be positive");
+        }
+        if (!pure)
+        {
+            throw new ExpressionException("Can't evaluate in parallel, expression isn't pure: " + expression);
+        }
+    }
+
+    private static void checkResults (double[] reals, double[] imaginaries)
+    {
+        if (reals.length != imaginaries.length)
+        {
+            throw new ExpressionException("Result columns differ in length");
+        }
+    }
+
+    private int[] columnSlots (String[] names, double[][] columns, int rows)
+    {
+        if (names.length != columns.length)
+        {
+            throw new ExpressionException("Need one column per variable");
+        }
+        int[] slots = new int[names.length];
+        for (int c = 0; c < names.length; c++)
+        {
+            slots[c] = getSlot(names[c]);
+            if (slots[c] < 0)
+            {
+                throw new ExpressionException("Expression doesn't use variable " + names[c]);
+            }
+            if (columns[c].length != rows)
+            {
+                throw new ExpressionException("Column " + names[c] + " has " + columns[c].length
+                        + " rows, need " + rows);
+            }
+        }
+        return slots;
+    }
+
+    private Frame checkFrame (Frame frame)
+    {
+        if (frame.owner != this)
+        {
+            throw new ExpressionException("Frame belongs to another expression");
+        }
+        return frame;
+    }
+
+    /**
+     * Copies the variables of a frame, for functions that need them by name.
+     */
+    Variables toVariables (Frame frame)
+    {
+        Variables vars = new Variables();
+        for (int slot = 0; slot < variableNames.length; slot++)
+        {
+            vars.copy(variableNames[slot], frame.get(slot));
+        }
+        return vars;
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param vars The variables to read and assign, must not be used by
+     *             another thread at the same time.
+     * @return The result of the expression.
+     */
+    public MyComplex eval (Variables vars)
+    {
+        return eval(vars, NO_HISTORY);
+    }
+
+    /**
+     * Evaluates the expression.
+     *
+     * @param vars    The variables to read and assign, must not be used by
+     *                another thread at the same time.
+     * @param history The history <code>H</code> reads.
+     * @return The result of the expression.
+     */
+    public MyComplex eval (Variables vars, LinkedList<String> history)
+    {
+        return new Expression(this, history, vars).eval();
+    }
+
+    /**
+     * Evaluates the expression to a real number, see {@link Expression#evalReal}.
+     *
+     * @param vars The variables to read and assign, must not be used by
+     *             another thread at the same time.
+     * @return The real part of the result of the expression.
+     */
+    public double evalReal (Variables vars)
+    {
+        return new Expression(this, NO_HISTORY, vars).evalReal();
+    }
+
+    long estimatedBytes ()
+    {
+        return estimatedBytes;
+    }
+
+    public String getExpression ()
+    {
+        return expression;
+    }
+
+    Builtins getBuiltins ()
+    {
+        return builtins;
+    }
+
+    /**
+     * See {@link Expression#getEliminatedNodes}.
+     *
+     * @return The number of eliminated nodes.
+     */
+    public int getEliminatedNodes ()
+    {
+        return eliminatedNodes;
+    }
+
+    @Override
+    public String toString ()
+    {
+        return expression;
+    }
+}
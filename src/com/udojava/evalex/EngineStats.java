@@ -0,0 +1,330 @@
+package com.udojava.evalex;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies and counters of parsing and evaluating expressions, published
+ * as MBean <code>com.udojava.evalex:type=EngineStats</code>. Nothing is
+ * recorded until {@link #register} is called; recording takes no locks.
+ */
+public final class EngineStats implements EngineStatsMXBean
+{
+    /**
+     * The statistics all expressions record to.
+     */
+    public static final EngineStats DEFAULT = new EngineStats();
+
+    /**
+     * The most different error messages counted separately, the others
+     * are counted as <code>"other"</code>.
+     */
+    private static final int MAX_MESSAGES = 100;
+
+    private final Histogram parse = new Histogram();
+    private final Histogram compile = new Histogram();
+    private final Histogram eval = new Histogram();
+    private final LongAdder errors = new LongAdder();
+    private final Map<String, LongAdder> errorsByMessage = new ConcurrentHashMap<>();
+    private final LongAdder variablesCreated = new LongAdder();
+    private volatile boolean enabled = false;
+    private volatile Variables variables = null;
+
+    private EngineStats ()
+    {
+    }
+
+    /**
+     * Registers the MBean with the platform MBean server, if it isn't yet,
+     * and starts recording.
+     *
+     * @param vars The variables whose number is shown, may be
+     *             <code>null</code>. Calling this again replaces them, e.g.
+     *             after the calculator loaded a session.
+     */
+    public synchronized void register (Variables vars)
+    {
+        variables = vars;
+        if (enabled)
+        {
+            return;
+        }
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("com.udojava.evalex:type=EngineStats"));
+        }
+        catch (JMException e)
+        {
+            throw new ExpressionException("Can't register statistics: " + e);
+        }
+        enabled = true;
+    }
+
+    /**
+     * Gets the time a stage starts at.
+     *
+     * @return The time in nanoseconds, 0 while nothing is recorded.
+     */
+    long start ()
+    {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void parsed (long start)
+    {
+        parse.record(start);
+    }
+
+    void compiled (long start)
+    {
+        compile.record(start);
+    }
+
+    void evaluated (long start)
+    {
+        eval.record(start);
+    }
+
+    void failed (ExpressionException e)
+    {
+        if (!enabled)
+        {
+            return;
+        }
+        errors.increment();
+        String key = messageClass(e.getMessage());
+        LongAdder n = errorsByMessage.get(key);
+        if (n == null)
+        {
+            n = errorsByMessage.size() < MAX_MESSAGES
+                    ? errorsByMessage.computeIfAbsent(key, k -> new LongAdder())
+                    : errorsByMessage.computeIfAbsent("other", k -> new LongAdder());
+        }
+        n.increment();
+    }
+
+    void variableCreated ()
+    {
+        if (enabled)
+        {
+            variablesCreated.increment();
+        }
+    }
+
+    /**
+     * Replaces what is quoted and the numbers in a message, like in
+     * <code>Unknown operator '?' at character position #</code>.
+     */
+    static String messageClass (String message)
+    {
+        if (message == null)
+        {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(message.length());
+        boolean quoted = false;
+        for (int n = 0; n < message.length(); n++)
+        {
+            char c = message.charAt(n);
+            if (c == '\'')
+            {
+                if (!quoted)
+                {
+                    sb.append("'?'");
+                }
+                quoted = !quoted;
+            }
+            else if (quoted)
+            {
+                continue;
+            }
+            else if (Character.isDigit(c))
+            {
+                if (sb.length() == 0 || sb.charAt(sb.length() - 1) != '#')
+                {
+                    sb.append('#');
+                }
+            }
+            else
+            {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Map<String, Long> getParseLatency ()
+    {
+        return parse.summary();
+    }
+
+    @Override
+    public long[] getParseHistogram ()
+    {
+        return parse.buckets();
+    }
+
+    @Override
+    public Map<String, Long> getCompileLatency ()
+    {
+        return compile.summary();
+    }
+
+    @Override
+    public long[] getCompileHistogram ()
+    {
+        return compile.buckets();
+    }
+
+    @Override
+    public Map<String, Long> getEvalLatency ()
+    {
+        return eval.summary();
+    }
+
+    @Override
+    public long[] getEvalHistogram ()
+    {
+        return eval.buckets();
+    }
+
+    @Override
+    public long getEvaluations ()
+    {
+        return eval.count();
+    }
+
+    @Override
+    public long getErrors ()
+    {
+        return errors.sum();
+    }
+
+    @Override
+    public Map<String, Long> getErrorsByMessage ()
+    {
+        Map<String, Long> m = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> e : errorsByMessage.entrySet())
+        {
+            m.put(e.getKey(), e.getValue().sum());
+        }
+        return m;
+    }
+
+    @Override
+    public long getVariablesCreated ()
+    {
+        return variablesCreated.sum();
+    }
+
+    @Override
+    public int getVariables ()
+    {
+        Variables v = variables;
+        return v != null ? v.getMap().size() : 0;
+    }
+
+    @Override
+    public void reset ()
+    {
+        parse.reset();
+        compile.reset();
+        eval.reset();
+        errors.reset();
+        errorsByMessage.clear();
+        variablesCreated.reset();
+    }
+
+    /**
+     * Latencies counted in buckets of powers of two.
+     */
+    private static final class Histogram
+    {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final AtomicLong max = new AtomicLong();
+
+        void record (long start)
+        {
+            if (start == 0)
+            {
+                return;
+            }
+            long nanos = Math.max(System.nanoTime() - start, 0);
+            buckets.incrementAndGet(Math.min(64 - Long.numberOfLeadingZeros(nanos), 63));
+            max.accumulateAndGet(nanos, Math::max);
+        }
+
+        long[] buckets ()
+        {
+            long[] b = new long[buckets.length()];
+            for (int i = 0; i < b.length; i++)
+            {
+                b[i] = buckets.get(i);
+            }
+            return b;
+        }
+
+        long count ()
+        {
+            long n = 0;
+            for (long b : buckets())
+            {
+                n += b;
+            }
+            return n;
+        }
+
+        /**
+         * Percentiles are the upper bounds of the buckets they fall in.
+         */
+        Map<String, Long> summary ()
+        {
+            long[] b = buckets();
+            long count = 0;
+            for (long n : b)
+            {
+                count += n;
+            }
+            Map<String, Long> m = new LinkedHashMap<>();
+            m.put("count", count);
+            m.put("p50", percentile(b, count, 0.5));
+            m.put("p90", percentile(b, count, 0.9));
+            m.put("p99", percentile(b, count, 0.99));
+            m.put("max", max.get());
+            return m;
+        }
+
+        private long percentile (long[] b, long count, double p)
+        {
+            long seen = 0;
+            for (int i = 0; i < b.length; i++)
+            {
+                seen += b[i];
+                if (seen > 0 && seen >= p * count)
+                {
+                    return Math.min(i == 63 ? Long.MAX_VALUE : (1L << i) - 1, max.get());
+                }
+            }
+            return 0;
+        }
+
+        void reset ()
+        {
+            for (int i = 0; i < buckets.length(); i++)
+            {
+                buckets.set(i, 0);
+            }
+            max.set(0);
+        }
+    }
+}
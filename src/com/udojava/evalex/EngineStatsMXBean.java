@@ -0,0 +1,68 @@
+package com.udojava.evalex;
+
+import java.util.Map;
+
+/**
+ * What {@link EngineStats} shows to JMX clients like JConsole. Latencies
+ * are in nanoseconds; a histogram has 64 buckets, bucket <code>i</code>
+ * counts the latencies from <code>2^(i-1)</code> to below <code>2^i</code>.
+ */
+public interface EngineStatsMXBean
+{
+    /**
+     * @return Latency summary of reading expressions into nodes: count,
+     * p50, p90, p99 and max.
+     */
+    Map<String, Long> getParseLatency ();
+
+    long[] getParseHistogram ();
+
+    /**
+     * @return Latency summary of optimizing the nodes of parsed
+     * expressions.
+     */
+    Map<String, Long> getCompileLatency ();
+
+    long[] getCompileHistogram ();
+
+    /**
+     * @return Latency summary of evaluations.
+     */
+    Map<String, Long> getEvalLatency ();
+
+    long[] getEvalHistogram ();
+
+    /**
+     * @return How many evaluations succeeded.
+     */
+    long getEvaluations ();
+
+    /**
+     * @return How many {@link ExpressionException}s parsing and evaluation
+     * threw.
+     */
+    long getErrors ();
+
+    /**
+     * @return The errors by message, with names and numbers in the
+     * messages replaced so that alike errors are counted together.
+     */
+    Map<String, Long> getErrorsByMessage ();
+
+    /**
+     * @return How many variables the parser created because an expression
+     * used them before they were set.
+     */
+    long getVariablesCreated ();
+
+    /**
+     * @return How many variables the calculator holds, 0 if no variables
+     * were given to {@link EngineStats#register}.
+     */
+    int getVariables ();
+
+    /**
+     * Sets all counters and histograms to 0.
+     */
+    void reset ();
+}
@@ -0,0 +1,122 @@
+package com.udojava.evalex;
+
+import java.util.IdentityHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Describes how an expression is evaluated: one line per node of its
+ * compiled tree, with what the node is, the type of its value, if it is
+ * pure or constant, if it can run on the real-only fast path and how many
+ * nodes its evaluation takes.
+ */
+final class Explainer
+{
+    private final Expression ex;
+    private final String source;
+    private final StringBuilder sb = new StringBuilder();
+    /**
+     * The shared nodes already shown, the others only refer to them.
+     */
+    private final Map<Node, Integer> shown = new IdentityHashMap<>();
+
+    private Explainer (Expression ex, String source)
+    {
+        this.ex = ex;
+        this.source = source;
+    }
+
+    /**
+     * @param plan     What eval() runs.
+     * @param tree     The compiled tree.
+     * @param ex       The expression that provides the variables.
+     * @param source   The expression text.
+     * @param bytecode <code>true</code> if the plan is generated code.
+     * @param profiled <code>true</code> if the plan has profiler probes.
+     * @return The description, one line per node.
+     */
+    static String explain (Node plan, Node tree, Expression ex, String source, boolean bytecode,
+                           boolean profiled)
+    {
+        Explainer e = new Explainer(ex, source);
+        e.sb.append("plan: ")
+                .append(profiled ? "profiled, " : plan instanceof Node.RealPath
+                        ? "real fast path, " : "no real fast path, ")
+                .append(bytecode ? "bytecode" : !profiled && BytecodeCompiler.isAvailable()
+                        && BytecodeCompiler.isCompilable(tree) ? "interpreted, bytecode possible" : "interpreted")
+                .append(", ").append(Optimizer.evaluatedNodes(tree)).append(" nodes per evaluation, ")
+                .append(ex.getEliminatedNodes()).append(" saved by sharing")
+                .append(System.lineSeparator());
+        e.sb.append(String.format(Locale.ROOT, "%-28s %-9s %-7s %-12s %-7s %5s  %s%n",
+                "node", "kind", "type", "flags", "path", "cost", "source"));
+        e.print(tree, 0);
+        return e.sb.toString();
+    }
+
+    private void print (Node n, int depth)
+    {
+        String label = null;
+        if (n instanceof Node.Shared)
+        {
+            Node.Shared s = (Node.Shared) n;
+            label = "#" + s.slot + " ";
+            if (shown.put(s, s.slot) != null)
+            {
+                line(depth, label + "(shared)", "shared", n, "", 0);
+                return;
+            }
+            n = s.node;
+        }
+        String prefix = label != null ? label : "";
+        if (n instanceof Node.Literal)
+        {
+            line(depth, prefix + ((Node.Literal) n).value.toStringComplex(), "literal", n,
+                    "pure const", 0);
+        }
+        else if (n instanceof Node.Var)
+        {
+            String name = ((Node.Var) n).name;
+            line(depth, prefix + name, "variable", n,
+                    ex.getVariables().isConstant(name) ? "pure const" : "pure", 1);
+        }
+        else if (n instanceof Node.Op)
+        {
+            Node.Op o = (Node.Op) n;
+            line(depth, prefix + o.op.getName(), "operator", n,
+                    flags(n, o.op instanceof LazyOperator), Optimizer.evaluatedNodes(n));
+            print(o.left, depth + 1);
+            print(o.right, depth + 1);
+        }
+        else if (n instanceof Node.Call)
+        {
+            Node.Call c = (Node.Call) n;
+            line(depth, prefix + c.function.getName(), "function", n,
+                    flags(n, !(c.function instanceof Function)), Optimizer.evaluatedNodes(n));
+            for (Node p : c.params)
+            {
+                print(p, depth + 1);
+            }
+        }
+    }
+
+    private static String flags (Node n, boolean lazy)
+    {
+        String flags = Optimizer.isPure(n) ? "pure" : "impure";
+        return lazy ? flags + " lazy" : flags;
+    }
+
+    private void line (int depth, String label, String kind, Node n, String flags, int cost)
+    {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+        {
+            name.append("  ");
+        }
+        name.append(label);
+        ValueType type = n.type(ex);
+        String path = RealNode.compile(n, ex) != null ? "real" : "complex";
+        String text = n.start >= 0 ? source.substring(n.start, n.end) : "";
+        sb.append(String.format(Locale.ROOT, "%-28s %-9s %-7s %-12s %-7s %5d  %s%n",
+                name, kind, type != null ? type : "?", flags, path, cost, text));
+    }
+}
@@ -0,0 +1,210 @@
+package com.udojava.evalex;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Bounded cache of compiled expressions, so terms that are evaluated again
+ * skip the parser. Entries are keyed by the source text with runs of
+ * whitespace collapsed, the operators and functions, and the variables
+ * the expression was compiled with, since constants are folded in. When
+ * the cache holds more entries or an estimated size above its limits, the
+ * least recently used entries are dropped.
+ * <p>
+ * The cache is safe to use from several threads.
+ */
+public final class ExpressionCache
+{
+    /**
+     * The cache used by the calculator and by <code>H</code>.
+     */
+    public static final ExpressionCache DEFAULT = new ExpressionCache(256, 4 << 20);
+
+    private final LinkedHashMap<Key, CompiledExpression> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private int maxEntries;
+    private long maxBytes;
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxEntries The most expressions to keep.
+     * @param maxBytes   The most estimated memory to use.
+     */
+    public ExpressionCache (int maxEntries, long maxBytes)
+    {
+        setLimits(maxEntries, maxBytes);
+    }
+
+    /**
+     * Changes the limits, dropping entries if the cache holds more.
+     *
+     * @param maxEntries The most expressions to keep.
+     * @param maxBytes   The most estimated memory to use.
+     */
+    public synchronized void setLimits (int maxEntries, long maxBytes)
+    {
+        if (maxEntries < 0 || maxBytes < 0)
+        {
+            throw new ExpressionException("Cache limits can't be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * Gets the compiled form of an expression, compiling it if it isn't
+     * cached.
+     *
+     * @param expression The expression.
+     * @param vars       The variables, constants are folded in.
+     *                   <code>null</code> to compile without constants, the
+     *                   entry is then shared by all such callers.
+     * @param builtins   The operators and functions.
+     * @return The compiled expression.
+     */
+    public CompiledExpression get (String expression, Variables vars, Builtins builtins)
+    {
+        Key key = new Key(normalize(expression), vars, builtins);
+        synchronized (this)
+        {
+            CompiledExpression c = entries.get(key);
+            if (c != null)
+            {
+                hits++;
+                return c;
+            }
+            misses++;
+        }
+        // compile outside the lock, another thread may do the same
+        CompiledExpression c = new Expression(key.source, new LinkedList<>(),
+                vars != null ? vars : new Variables(), builtins).compile();
+        synchronized (this)
+        {
+            CompiledExpression old = entries.put(key, c);
+            if (old != null)
+            {
+                bytes -= old.estimatedBytes();
+            }
+            bytes += c.estimatedBytes();
+            evict();
+        }
+        return c;
+    }
+
+    /**
+     * Drops all entries, e.g. when constants were replaced.
+     */
+    public synchronized void clear ()
+    {
+        entries.clear();
+        bytes = 0;
+    }
+
+    private void evict ()
+    {
+        Iterator<Map.Entry<Key, CompiledExpression>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext())
+        {
+            bytes -= it.next().getValue().estimatedBytes();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    /**
+     * Collapses runs of whitespace, the tokenizer treats them alike.
+     */
+    private static String normalize (String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length());
+        boolean space = false;
+        for (int n = 0; n < s.length(); n++)
+        {
+            char c = s.charAt(n);
+            if (Character.isWhitespace(c))
+            {
+                space = sb.length() > 0;
+            }
+            else
+            {
+                if (space)
+                {
+                    sb.append(' ');
+                    space = false;
+                }
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    public synchronized int size ()
+    {
+        return entries.size();
+    }
+
+    public synchronized long getEstimatedBytes ()
+    {
+        return bytes;
+    }
+
+    public synchronized long getHits ()
+    {
+        return hits;
+    }
+
+    public synchronized long getMisses ()
+    {
+        return misses;
+    }
+
+    public synchronized long getEvictions ()
+    {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString ()
+    {
+        return "entries: " + entries.size() + "/" + maxEntries
+                + ", bytes: " + bytes + "/" + maxBytes
+                + ", hits: " + hits + ", misses: " + misses + ", evictions: " + evictions;
+    }
+
+    private static final class Key
+    {
+        final String source;
+        final Variables vars;
+        final Builtins builtins;
+
+        Key (String source, Variables vars, Builtins builtins)
+        {
+            this.source = source;
+            this.vars = vars;
+            this.builtins = builtins;
+        }
+
+        @Override
+        public boolean equals (Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            Key k = (Key) o;
+            return source.equals(k.source) && vars == k.vars && builtins == k.builtins;
+        }
+
+        @Override
+        public int hashCode ()
+        {
+            return (source.hashCode() * 31 + System.identityHashCode(vars)) * 31
+                    + System.identityHashCode(builtins);
+        }
+    }
+}
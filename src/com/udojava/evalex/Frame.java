@@ -0,0 +1,160 @@
+package com.udojava.evalex;
+
+/**
+ * Values of the variables of one {@link CompiledExpression}, kept in
+ * numbered slots instead of a map. The slot of each variable is fixed when
+ * the expression is compiled, see {@link CompiledExpression#getSlot}, so
+ * binding inputs and reading them during evaluation are array accesses.
+ * Scalars are kept as primitive doubles, only arrays as objects.
+ * <p>
+ * A frame is created by {@link CompiledExpression#newFrame} and must not
+ * be used by more than one thread at a time.
+ */
+public final class Frame
+{
+    /**
+     * The expression the slots belong to.
+     */
+    final CompiledExpression owner;
+    private final double[] reals;
+    private final double[] imaginaries;
+    private final ValueType[] types;
+    /**
+     * The values as objects: always set for arrays, a cache for scalars
+     * that is cleared when a slot changes.
+     */
+    private final MyComplex[] values;
+
+    Frame (CompiledExpression owner, MyComplex[] initial)
+    {
+        this.owner = owner;
+        int size = initial.length;
+        reals = new double[size];
+        imaginaries = new double[size];
+        types = new ValueType[size];
+        values = new MyComplex[size];
+        for (int slot = 0; slot < size; slot++)
+        {
+            set(slot, initial[slot]);
+        }
+    }
+
+    /**
+     * @return The number of slots.
+     */
+    public int size ()
+    {
+        return reals.length;
+    }
+
+    /**
+     * Sets a variable to a real number.
+     *
+     * @param slot  The slot of the variable.
+     * @param value The value.
+     */
+    public void setReal (int slot, double value)
+    {
+        reals[slot] = value;
+        imaginaries[slot] = 0.0;
+        types[slot] = ValueType.REAL;
+        values[slot] = null;
+    }
+
+    /**
+     * Sets a variable to a complex number.
+     *
+     * @param slot      The slot of the variable.
+     * @param real      The real part.
+     * @param imaginary The imaginary part.
+     */
+    public void setComplex (int slot, double real, double imaginary)
+    {
+        reals[slot] = real;
+        imaginaries[slot] = imaginary;
+        types[slot] = ValueType.COMPLEX;
+        values[slot] = null;
+    }
+
+    /**
+     * Sets a variable to any value, including arrays.
+     *
+     * @param slot  The slot of the variable.
+     * @param value The value.
+     */
+    public void set (int slot, MyComplex value)
+    {
+        reals[slot] = value.real;
+        imaginaries[slot] = value.imaginary;
+        types[slot] = value.type;
+        values[slot] = value;
+    }
+
+    /**
+     * Sets the first variables to real numbers, in order of their slots.
+     *
+     * @param values One value per slot, starting at slot 0.
+     */
+    public void setReals (double... values)
+    {
+        for (int slot = 0; slot < values.length; slot++)
+        {
+            setReal(slot, values[slot]);
+        }
+    }
+
+    /**
+     * Sets the given variables to real numbers.
+     *
+     * @param slots  The slots to set.
+     * @param values One value per slot.
+     */
+    public void setReals (int[] slots, double[] values)
+    {
+        if (slots.length != values.length)
+        {
+            throw new ExpressionException("Need one value per slot");
+        }
+        for (int n = 0; n < slots.length; n++)
+        {
+            setReal(slots[n], values[n]);
+        }
+    }
+
+    /**
+     * Gets the value of a variable.
+     *
+     * @param slot The slot of the variable.
+     * @return The value.
+     */
+    public MyComplex get (int slot)
+    {
+        MyComplex v = values[slot];
+        if (v == null)
+        {
+            v = new MyComplex(reals[slot], imaginaries[slot], types[slot]);
+            values[slot] = v;
+        }
+        return v;
+    }
+
+    /**
+     * Gets the real part of a variable.
+     *
+     * @param slot The slot of the variable.
+     * @return The real part.
+     */
+    public double getReal (int slot)
+    {
+        return reals[slot];
+    }
+
+    /**
+     * Tells if a variable holds a real number, so that the real
+     * evaluation can use it.
+     */
+    boolean isReal (int slot)
+    {
+        return types[slot] == ValueType.REAL && imaginaries[slot] == 0.0;
+    }
+}
@@ -12,7 +12,12 @@ public abstract class Function extends LazyFunction
 {
     public Function (String name, int numParams, String desc)
     {
-        super(name, numParams);
+        this(name, numParams, desc, null);
+    }
+
+    public Function (String name, int numParams, String desc, ValueType resultType)
+    {
+        super(name, numParams, resultType);
         this.desc = desc;
     }
 
@@ -22,21 +27,41 @@ public abstract class Function extends LazyFunction
     }
 
     public LazyNumber lazyEval (List<LazyNumber> lazyParams)
+    {
+        return lazyEval(null, lazyParams);
+    }
+
+    @Override
+    public LazyNumber lazyEval (Expression ex, List<LazyNumber> lazyParams)
     {
         List<MyComplex> params = new ArrayList<>();
         for (LazyNumber lazyParam : lazyParams)
         {
             params.add(lazyParam.eval());
         }
-        if (params.get(0).type == ValueType.ARRAY
-                && params.size() == 1
+        List<MyComplex> finalParams = params;
+        return () -> evalParams(ex, finalParams);
+    }
+
+    /**
+     * Evaluates this function with parameters that are already computed.
+     * A single array passed to a function with a variable number of
+     * parameters is spread into its elements.
+     *
+     * @param ex     The expression being evaluated, may be <code>null</code>.
+     * @param params The evaluated parameters.
+     * @return The computing result.
+     */
+    MyComplex evalParams (Expression ex, List<MyComplex> params)
+    {
+        if (params.size() == 1
+                && params.get(0).type == ValueType.ARRAY
                 && getNumParams() == -1
                 && !params.get(0).isPoly())
         {
             params = params.get(0).list;
         }
-        List<MyComplex> finalParams = params;
-        return () -> Function.this.eval(finalParams);
+        return eval(ex, params);
     }
 
     /**
@@ -48,4 +73,44 @@ public abstract class Function extends LazyFunction
      * computing result.
      */
     public abstract MyComplex eval (List<MyComplex> parameters);
+
+    /**
+     * Implementation for this function with access to the evaluating
+     * expression. Functions that need its variables or history override this.
+     *
+     * @param ex         The expression being evaluated, may be <code>null</code>.
+     * @param parameters The evaluated parameters.
+     * @return The computing result.
+     */
+    public MyComplex eval (Expression ex, List<MyComplex> parameters)
+    {
+        return eval(parameters);
+    }
+
+    /**
+     * Implementation for a real parameter giving a real result, used by the
+     * allocation free evaluation of real expressions. Functions of one
+     * parameter whose {@link #resultType} is {@link ValueType#REAL} for a
+     * real parameter can override this; it must give the same result as
+     * {@link #eval}.
+     *
+     * @param v The parameter.
+     * @return The computing result.
+     */
+    public double evalReal (double v)
+    {
+        throw new UnsupportedOperationException(name);
+    }
+
+    /**
+     * Two parameter version of {@link #evalReal(double)}.
+     *
+     * @param v1 Parameter 1.
+     * @param v2 Parameter 2.
+     * @return The computing result.
+     */
+    public double evalReal (double v1, double v2)
+    {
+        throw new UnsupportedOperationException(name);
+    }
 }
@@ -14,6 +14,10 @@ public abstract class LazyFunction extends Mathobject
      * <code>-1</code> denotes a variable number of parameters.
      */
     private final int numParams;
+    /**
+     * Type of the result, <code>null</code> if it depends on the parameters.
+     */
+    private final ValueType resultType;
 
     /**
      * Creates a new function with given name and parameter count.
@@ -23,9 +27,28 @@ public abstract class LazyFunction extends Mathobject
      *                  <code>-1</code> denotes a variable number of parameters.
      */
     public LazyFunction (String name, int numParams)
+    {
+        this(name, numParams, null);
+    }
+
+    /**
+     * Creates a new function that always gives a result of the same type.
+     *
+     * @param name       The name of the function.
+     * @param numParams  The number of parameters for this function.
+     * @param resultType The type of all results.
+     */
+    public LazyFunction (String name, int numParams, ValueType resultType)
     {
         this.name = name.toUpperCase(Locale.ROOT);
         this.numParams = numParams;
+        this.resultType = resultType;
+    }
+
+    public LazyFunction (String name, int numParams, String desc, ValueType resultType)
+    {
+        this(name, numParams, resultType);
+        this.desc = desc;
     }
 
 
@@ -39,5 +62,30 @@ public abstract class LazyFunction extends Mathobject
         return numParams < 0;
     }
 
+    /**
+     * Tells the type of the result for parameters of the given types.
+     *
+     * @param paramTypes Types of the parameters.
+     * @return The result type, or <code>null</code> if it is not known
+     * before evaluation.
+     */
+    public ValueType resultType (ValueType... paramTypes)
+    {
+        return resultType;
+    }
+
     public abstract LazyNumber lazyEval (List<LazyNumber> lazyParams);
+
+    /**
+     * Lazy evaluation with access to the evaluating expression. Functions
+     * that need its variables or history override this.
+     *
+     * @param ex         The expression being evaluated.
+     * @param lazyParams The lazily evaluated parameters.
+     * @return The lazily evaluated result.
+     */
+    public LazyNumber lazyEval (Expression ex, List<LazyNumber> lazyParams)
+    {
+        return lazyEval(lazyParams);
+    }
 }
@@ -0,0 +1,43 @@
+package com.udojava.evalex;
+
+/**
+ * An operator that decides itself whether it needs its operands, so
+ * logical operators can skip the second one when the first one already
+ * gives the result.
+ */
+public abstract class LazyOperator extends Operator
+{
+    public LazyOperator (String name, int precedence, boolean leftAssoc, String desc, ValueType resultType)
+    {
+        super(name, precedence, leftAssoc, desc, resultType);
+    }
+
+    /**
+     * Implementation for this operator.
+     *
+     * @param v1 Operand 1, evaluated only when asked for.
+     * @param v2 Operand 2, evaluated only when asked for.
+     * @return The lazily evaluated result.
+     */
+    public abstract LazyNumber lazyEval (LazyNumber v1, LazyNumber v2);
+
+    @Override
+    public MyComplex eval (MyComplex v1, MyComplex v2)
+    {
+        return lazyEval(() -> v1, () -> v2).eval();
+    }
+
+    /**
+     * Real implementation that skips the second operand like
+     * {@link #lazyEval}. Evaluates both by default.
+     *
+     * @param ex The expression that provides the variables.
+     * @param v1 Operand 1.
+     * @param v2 Operand 2.
+     * @return The result of the operation.
+     */
+    double evalReal (Expression ex, RealNode v1, RealNode v2)
+    {
+        return evalReal(v1.eval(ex), v2.eval(ex));
+    }
+}
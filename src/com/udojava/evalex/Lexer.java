@@ -0,0 +1,287 @@
+package com.udojava.evalex;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * Splits an expression into tokens in one pass over its characters. A
+ * token is its type and its offsets in the input, no strings are created
+ * for it; operators are matched with a {@link Trie} of the operator names.
+ * Blanks separate tokens and are skipped.
+ */
+final class Lexer
+{
+    static final int END = 0;
+    /**
+     * Starts with a digit, like <code>1.5e-3</code> or <code>2i</code>.
+     */
+    static final int NUMBER = 1;
+    /**
+     * A name, or a number written like <code>x1f</code>.
+     */
+    static final int WORD = 2;
+    /**
+     * An operator, its symbol or a name like <code>xor</code>.
+     */
+    static final int OPERATOR = 3;
+    static final int OPEN = 4;
+    static final int CLOSE = 5;
+    static final int COMMA = 6;
+
+    /**
+     * What character to use for decimal separators.
+     */
+    private static final char decimalSeparator = '.';
+    /**
+     * What character to use for minus sign (in exponents).
+     */
+    private static final char minusSign = '-';
+
+    private final char[] input;
+    private final Trie operators;
+    private int pos = 0;
+    private int type = END;
+    private int start = 0;
+    private int end = 0;
+    /**
+     * The operator read last, <code>null</code> if the token isn't one.
+     */
+    private Operator operator = null;
+
+    /**
+     * @param input     The expression.
+     * @param operators The operator names, see {@link Builtins#getOperatorTrie}.
+     */
+    Lexer (String input, Trie operators)
+    {
+        this.input = input.toCharArray();
+        this.operators = operators;
+    }
+
+    /**
+     * Reads the next token.
+     *
+     * @return Its type, {@link #END} after the last one.
+     */
+    int next ()
+    {
+        boolean operandExpected = operandExpected();
+        while (pos < input.length && Character.isWhitespace(input[pos]))
+        {
+            pos++;
+        }
+        start = pos;
+        operator = null;
+        if (pos >= input.length)
+        {
+            end = pos;
+            return type = END;
+        }
+        char ch = input[pos];
+        if (Character.isDigit(ch))
+        {
+            pos++;
+            while (pos < input.length && isNumberChar(input[pos], input[pos - 1]))
+            {
+                pos++;
+            }
+            type = NUMBER;
+        }
+        else if (Character.isLetter(ch) || ch == '_')
+        {
+            while (pos < input.length
+                    && (Character.isLetterOrDigit(input[pos]) || input[pos] == '_'))
+            {
+                pos++;
+            }
+            type = WORD;
+            Trie t = operators.find(input, start, pos);
+            if (t != null)
+            {
+                operator = t.operator;
+                type = OPERATOR;
+            }
+            else if (!operandExpected)
+            {
+                // an operator must follow, split off keyword operators
+                // written without blanks like in 3xor5
+                int matched = matchOperator(start, pos - 1);
+                if (matched > start)
+                {
+                    pos = matched;
+                    type = OPERATOR;
+                }
+            }
+        }
+        else if (ch == '(' || ch == ')' || ch == ',')
+        {
+            pos++;
+            type = ch == '(' ? OPEN : ch == ')' ? CLOSE : COMMA;
+        }
+        else
+        {
+            // the longest operator, 5!+1 is 5 ! + 1
+            int matched = matchOperator(start, input.length);
+            if (matched == start)
+            {
+                throw new ExpressionException("Unknown operator '" + ch
+                        + "' at character position " + start);
+            }
+            pos = matched;
+            type = OPERATOR;
+        }
+        end = pos;
+        return type;
+    }
+
+    /**
+     * Where the first digit may be followed by more digits, the decimal
+     * separator, an exponent with an optional sign and <code>i</code> for
+     * imaginary numbers.
+     */
+    private static boolean isNumberChar (char ch, char previous)
+    {
+        return Character.isDigit(ch) || ch == decimalSeparator
+                || ch == 'e' || ch == 'i' || ch == 'E'
+                || (ch == minusSign || ch == '+') && (previous == 'e' || previous == 'E');
+    }
+
+    /**
+     * Finds the longest operator name at a position and sets {@link #operator}.
+     *
+     * @param from Where the name starts.
+     * @param to   Where it must end at the latest.
+     * @return Where the name ends, <code>from</code> if none was found.
+     */
+    private int matchOperator (int from, int to)
+    {
+        int matched = from;
+        Trie t = operators;
+        for (int p = from; p < to && (t = t.child(input[p])) != null; p++)
+        {
+            if (t.operator != null)
+            {
+                operator = t.operator;
+                matched = p + 1;
+            }
+        }
+        return matched;
+    }
+
+    /**
+     * Tells if an operand must follow the token read last, so that an
+     * operator there is written in front of its operand.
+     *
+     * @return <code>true</code> at the start, after an opening parenthesis,
+     * a comma and operators other than postfix ones.
+     */
+    boolean operandExpected ()
+    {
+        return type == END || type == OPEN || type == COMMA
+                || type == OPERATOR && !operator.isPostfix();
+    }
+
+    /**
+     * @return The operator read last, if the token is one.
+     */
+    Operator operator ()
+    {
+        return operator;
+    }
+
+    int start ()
+    {
+        return start;
+    }
+
+    int end ()
+    {
+        return end;
+    }
+
+    /**
+     * @return The text of the token read last.
+     */
+    String text ()
+    {
+        return new String(input, start, end - start);
+    }
+
+    /**
+     * @return A part of the input, e.g. for an error message.
+     */
+    String text (int from, int to)
+    {
+        return new String(input, from, to - from);
+    }
+
+    /**
+     * Operator names by character, compared ignoring case like the
+     * operator maps do. Built once per {@link Builtins}.
+     */
+    static final class Trie
+    {
+        private char[] keys = new char[0];
+        private Trie[] children = new Trie[0];
+        /**
+         * The operator whose name ends here, <code>null</code> if none.
+         */
+        private Operator operator = null;
+
+        Trie (Collection<Operator> operators)
+        {
+            for (Operator o : operators)
+            {
+                Trie t = this;
+                for (char ch : o.getName().toCharArray())
+                {
+                    Trie c = t.child(ch);
+                    if (c == null)
+                    {
+                        c = new Trie();
+                        int n = t.keys.length;
+                        t.keys = Arrays.copyOf(t.keys, n + 1);
+                        t.children = Arrays.copyOf(t.children, n + 1);
+                        t.keys[n] = Character.toLowerCase(ch);
+                        t.children[n] = c;
+                    }
+                    t = c;
+                }
+                t.operator = o;
+            }
+        }
+
+        private Trie ()
+        {
+        }
+
+        private Trie child (char ch)
+        {
+            ch = Character.toLowerCase(ch);
+            for (int n = 0; n < keys.length; n++)
+            {
+                if (keys[n] == ch)
+                {
+                    return children[n];
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Finds the operator named by a part of the input.
+         *
+         * @return The node of the name, <code>null</code> if no operator
+         * has it.
+         */
+        Trie find (char[] input, int from, int to)
+        {
+            Trie t = this;
+            for (int p = from; p < to && t != null; p++)
+            {
+                t = t.child(input[p]);
+            }
+            return t != null && t.operator != null ? t : null;
+        }
+    }
+}
@@ -46,7 +46,7 @@ public class Main implements Serializable
      */
     private static final MyComplex e = new MyComplex (Math.E);
     private static ConsoleReader _console;
-    private static final String[] cmdList = {".i", ".?", ".r", ".d", ".s", ".l", ".p", ".f", ".o", ".h", ".x", ".v"};
+    private static final String[] cmdList = {".i", ".?", ".r", ".d", ".s", ".l", ".p", ".f", ".o", ".h", ".x", ".v", ".c", ".t", ".e"};
 
     private Variables  _variables = new Variables();
     private LinkedList<String> _history = new LinkedList<>();
@@ -55,11 +55,12 @@ public class Main implements Serializable
     public static void main (String[] args) throws Exception
     {
         Main m = new Main();
-        m._variables.put("e", e);
-        m._variables.put("PI", PI);
-        m._variables.put("TRUE", new MyComplex (1));
-        m._variables.put("FALSE", new MyComplex (0));
+        m._variables.putConstant("e", e);
+        m._variables.putConstant("PI", PI);
+        m._variables.putConstant("TRUE", new MyComplex (1));
+        m._variables.putConstant("FALSE", new MyComplex (0));
         m._variables.put("BUILD", new MyComplex(Main.BUILD_NUMBER));
+        EngineStats.DEFAULT.register(m._variables);
 
 //        execCommandOrTerm(".i1;2;0.1,sin(_)");
         //        _variables.put("jaja",
@@ -188,11 +189,23 @@ public class Main implements Serializable
                 break;
 
             case 'f': // funcs
-                printMathObjects(getExpression("").getFuncs(), s);
+                printMathObjects(Builtins.DEFAULT.getFuncs(), s);
                 break;
 
             case 'o': // operands
-                printMathObjects(getExpression("").getOps(), s);
+                printMathObjects(Builtins.DEFAULT.getOps(), s);
+                break;
+
+            case 'c': // cache
+                AnsiConsole.out.println("Expression cache: " + ExpressionCache.DEFAULT);
+                break;
+
+            case 'e': // explain
+                AnsiConsole.out.print(new Expression(s, _history, _variables).explain());
+                break;
+
+            case 't': // profiler
+                profile(s);
                 break;
 
             case '?':
@@ -224,6 +237,31 @@ public class Main implements Serializable
         }
     }
 
+    // .t on, .t off, .t reset or .t to show the table
+    private void profile (String s)
+    {
+        switch (s)
+        {
+            case "on":
+            case "off":
+                Profiler.setEnabled(s.equals("on"));
+                ExpressionCache.DEFAULT.clear();   // compile the terms again
+                break;
+
+            case "reset":
+                Profiler.reset();
+                break;
+
+            case "":
+                AnsiConsole.out.println("Profiler is " + (Profiler.isEnabled() ? "on" : "off"));
+                AnsiConsole.out.print(Profiler.report());
+                break;
+
+            default:
+                throw new ExpressionException("Use .t on, .t off or .t reset");
+        }
+    }
+
     // .i1;2;0.1;sin(_)
     private void iterate (String s)
     {
@@ -249,12 +287,29 @@ public class Main implements Serializable
         {
             v2 = v2.add(new MyComplex (1));
         }
+        _variables.put("_", v1);
+        String[] terms = Misc.joinDigitGroups(term).split(":");
+        CompiledExpression[] compiled = new CompiledExpression[terms.length];
+        for (int n = 0; n < terms.length; n++)  // parse once, not per step
+        {
+            compiled[n] = compileTerm(terms[n]);
+            if (!_history.contains(terms[n]))
+            {
+                _history.addLast(terms[n]);
+            }
+        }
         ArrayList<MyComplex> arr = new ArrayList<>();
         while (v1.compareToReal(v2)<=0)  // Run loop
         {
             _variables.put("_", v1);
             AnsiConsole.out.print(v1.toPlainStringComplex()+ " -> ");
-            arr.addAll(runParser(term));
+            for (int n = 0; n < terms.length; n++)
+            {
+                MyComplex ret = compiled[n].eval(_variables, _history);
+                arr.add(ret);
+                AnsiConsole.out.print(terms[n] + " = ");
+                printBigNumber(ret);
+            }
             v1 = v1.add(new MyComplex(step)); // inc loop counter
         }
         if (toks.length == 5)
@@ -280,19 +335,31 @@ public class Main implements Serializable
             name = "default";
         byte[] b = Files.readAllBytes(Paths.get(name+".json"));
         String s = new String(b);
-        Main m = (Main) JsonReader.jsonToJava(s);
+        Main m = (Main) fromJson(s);
         this._history = m._history;
         this._radix = m._radix;
         this._variables = m._variables;
+        EngineStats.DEFAULT.register(_variables);
+        ExpressionCache.DEFAULT.clear();   // compiled with the old constants
+    }
+
+    /**
+     * Reads objects written by {@link JsonWriter}.
+     */
+    static Object fromJson (String json)
+    {
+        // packed arrays and sequences are read back as plain lists
+        JsonReader.assignInstantiator(PackedArray.class, new JsonReader.CollectionFactory());
+        JsonReader.assignInstantiator(ArithmeticSequence.class, new JsonReader.CollectionFactory());
+        return JsonReader.jsonToJava(json);
     }
 
     private List<MyComplex> runParser (String terms)
     {
         ArrayList<MyComplex> arr = new ArrayList<>();
-        for (String s : terms.split(":"))
+        for (String s : Misc.joinDigitGroups(terms).split(":"))
         {
-            Expression e = runUdoParser(s);
-            MyComplex ret = e.eval();
+            MyComplex ret = compileTerm(s).eval(_variables, _history);
             arr.add(ret);
             if (!_history.contains(s))
             {
@@ -348,6 +415,10 @@ public class Main implements Serializable
                     (Map.Entry<String, Mathobject>) obj;
             String name = mo.getKey();
             String desc = mo.getValue().getDescription();
+            if (mo.getValue() instanceof Operator && ((Operator) mo.getValue()).isPrefix())
+            {
+                continue;   // u- and u+, written as - and +
+            }
             if (filter == null || name.toLowerCase().startsWith(filter.toLowerCase()))
             {
                 AnsiConsole.out.print(Ansi.ansi().fg(Ansi.Color.CYAN));
@@ -378,6 +449,10 @@ public class Main implements Serializable
         AnsiConsole.out.println("To change the output, type '" + wg(".r") + " n' where n can be any value from 2 to 36 inclusively.");
         AnsiConsole.out.println("If .r (radix) is 0, then output is presented as real number, otherwise it is integer.");
         AnsiConsole.out.println("Type " + wg(".v") + " to see the list of variables.");
+        AnsiConsole.out.println("Type " + wg(".c") + " to see how often the cache of compiled terms was used.");
+        AnsiConsole.out.println("Type " + wg(".e") + " followed by a term to see how it is evaluated, without evaluating it.");
+        AnsiConsole.out.println("Type " + wg(".t on") + " to measure the time of operators and functions, " + wg(".t") + " to show it.");
+        AnsiConsole.out.println("'.t reset' sets the times to 0 and '.t off' stops measuring.");
         AnsiConsole.out.println("If .v is followed by x->y then variable x is set to value y.");
         AnsiConsole.out.println("Use "+wg(".i")+ " to do iteration.");
         AnsiConsole.out.println(".i accepts 3, 4 or 5 arguments separated by semicolon. First 2 args are upper and lower level of iteration.");
@@ -389,26 +464,12 @@ public class Main implements Serializable
         AnsiConsole.out.print(Ansi.ansi().reset());
     }
 
-    private Expression runUdoParser (String s)
+    /**
+     * Compiles a term, or takes it from the cache if it was seen before.
+     */
+    private CompiledExpression compileTerm (String s)
     {
-        s = s.replaceAll("\\s+", ""); // remove whitespace
-        s = s.replace("!", "!0");  // fake op for factorial
-        s = s.replace("~", "0~"); // fake op for negation
-        s = Misc.realReplaceAll(s, "(+(", "(0+(");  // fix unary + bug
-        s = Misc.realReplaceAll(s, "(-(", "(0-(");  // fix unary - bug
-        if (s.startsWith("-") || s.startsWith("+"))
-        {
-            s = "0" + s;
-        }
-        s = s.replaceAll("floor", "§§§1"); // save some words
-        s = s.replaceAll("xor", "§§§2");
-        s = s.replaceAll("or", " or ");
-        s = s.replaceAll("and", " and ");
-        s = s.replaceAll("shl", " shl ");
-        s = s.replaceAll("shr", " shr ");
-        s = s.replaceAll("§§§1", "floor"); // restore some words
-        s = s.replaceAll("§§§2", " xor ");
-        return getExpression(s);
+        return ExpressionCache.DEFAULT.get(s, _variables, Builtins.DEFAULT);
     }
 
     private void printBigNumber (MyComplex ret)
@@ -7,6 +7,10 @@ class Mathobject
 {
     String name = null;
     String desc = null;
+    /**
+     * Set for the built-ins that are pure, see {@link #isPure}.
+     */
+    boolean pure = false;
 
     public String getDescription ()
     {
@@ -18,4 +22,39 @@ class Mathobject
         return name;
     }
 
+    /**
+     * Tells if this always gives the same result for the same arguments
+     * and has no side effects, so calls with constant arguments can be
+     * evaluated once when an expression is compiled. Custom operators and
+     * functions are taken to be impure unless they override this.
+     *
+     * @return <code>true</code> for the pure built-ins, else
+     * <code>false</code>.
+     */
+    public boolean isPure ()
+    {
+        return pure;
+    }
+
+    /**
+     * Tells if a class overrides a method declared by one of its bases.
+     *
+     * @param c      The class to check.
+     * @param base   The class that declares the method.
+     * @param method Name of the method.
+     * @param params Parameter types of the method.
+     * @return <code>true</code> if the method is overridden.
+     */
+    static boolean overrides (Class<?> c, Class<?> base, String method, Class<?>... params)
+    {
+        try
+        {
+            return c.getMethod(method, params).getDeclaringClass() != base;
+        }
+        catch (NoSuchMethodException e)
+        {
+            return true;
+        }
+    }
+
 }
@@ -106,6 +106,36 @@ public class Misc
         return third;
     }
 
+    /**
+     * Removes blanks between two digits, so that digit groups like in
+     * <code>1 000 000</code> are read as one number. Other blanks are kept.
+     */
+    public static String joinDigitGroups (String s)
+    {
+        StringBuilder sb = new StringBuilder(s.length());
+        int n = 0;
+        while (n < s.length())
+        {
+            char c = s.charAt(n);
+            if (Character.isWhitespace(c) && sb.length() > 0 && Character.isDigit(sb.charAt(sb.length() - 1)))
+            {
+                int end = n;
+                while (end < s.length() && Character.isWhitespace(s.charAt(end)))
+                {
+                    end++;
+                }
+                if (end < s.length() && Character.isDigit(s.charAt(end)))
+                {
+                    n = end;
+                    continue;
+                }
+            }
+            sb.append(c);
+            n++;
+        }
+        return sb.toString();
+    }
+
     public static String realReplaceAll (String s, String a, String b)
     {
         for (; ; )
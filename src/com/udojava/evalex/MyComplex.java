@@ -3,6 +3,7 @@ package com.udojava.evalex;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.math3.analysis.polynomials.PolynomialFunction;
 import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.util.FastMath;
 
 import java.math.BigInteger;
 import java.text.DecimalFormat;
@@ -17,28 +18,61 @@ public class MyComplex
     public boolean isPolynomial = false;
     public double imaginary = 0.0;
     public double real = 0.0;
-    public final ArrayList<MyComplex> list = new ArrayList<>();
+    /**
+     * Elements of an array, <code>null</code> for scalars so that numbers
+     * are a single small object. Arrays of numbers of one type are packed
+     * into primitive arrays and sequences keep only their start, step and
+     * count; neither can be changed.
+     */
+    public final List<MyComplex> list;
     public ValueType type;
 
     public MyComplex (List<MyComplex> l)
     {
-        list.addAll(l);
+        if (l instanceof ArithmeticSequence)
+        {
+            list = l;   // can't be changed either
+        }
+        else
+        {
+            PackedArray packed = PackedArray.pack(l);
+            list = packed != null ? packed : new ArrayList<>(l);
+        }
+        type = ValueType.ARRAY;
+    }
+
+    /**
+     * Creates a packed array that takes the given arrays, which must not be
+     * changed afterwards.
+     *
+     * @param imaginaries <code>null</code> for an array of real numbers.
+     */
+    MyComplex (double[] reals, double[] imaginaries)
+    {
+        list = new PackedArray(reals, imaginaries);
         type = ValueType.ARRAY;
     }
 
     public MyComplex (PolynomialFunction p)
     {
+        this(p.getCoefficients(), null);   // a copy already
         isPolynomial = true;
-        double[] d = p.getCoefficients();
-        list.addAll(MyComplex.listFromRealArray(d));
-        type = ValueType.ARRAY;
     }
 
     public MyComplex (Complex c)
     {
-        real = c.getReal();
-        imaginary = c.getImaginary();
-        type = ValueType.COMPLEX;
+        this(c.getReal(), c.getImaginary());
+    }
+
+    /**
+     * Creates a scalar of the given type.
+     */
+    MyComplex (double val, double img, ValueType type)
+    {
+        real = val;
+        imaginary = img;
+        this.type = type;
+        list = null;
     }
 
     public boolean equals (Object o)
@@ -52,46 +86,41 @@ public class MyComplex
         {
             return real == oo.real && imaginary == oo.imaginary;
         }
+        if (oo.type != ValueType.ARRAY || oo.list == null)
+        {
+            return false;   // scalars have no list
+        }
         return CollectionUtils.isEqualCollection(this.list, oo.list);
     }
 
     public MyComplex (double val, double img)
     {
-        real = val;
-        imaginary = img;
-        type = ValueType.COMPLEX;
+        this(val, img, ValueType.COMPLEX);
     }
 
     public MyComplex (double val)
     {
-        real = val;
-        type = ValueType.REAL;
+        this(val, 0.0, ValueType.REAL);
     }
 
     public MyComplex (String val, String img)
     {
-        real = Double.parseDouble(val);
-        imaginary = Double.parseDouble(img);
-        type = ValueType.COMPLEX;
+        this(Double.parseDouble(val), Double.parseDouble(img));
     }
 
     public MyComplex (String val)
     {
-        real = Double.parseDouble(val);
-        type = ValueType.REAL;
+        this(Double.parseDouble(val));
     }
 
     public MyComplex (BigInteger val, BigInteger img)
     {
-        real = val.doubleValue();
-        imaginary = img.doubleValue();
-        type = ValueType.COMPLEX;
+        this(val.doubleValue(), img.doubleValue());
     }
 
     public MyComplex (BigInteger val)
     {
-        real = val.doubleValue();
-        type = ValueType.REAL;
+        this(val.doubleValue());
     }
 
     public int compareToReal (MyComplex val)
@@ -116,9 +145,11 @@ public class MyComplex
 
     public MyComplex conjugate ()
     {
-        Complex c = new Complex(real, imaginary);
-        c = c.conjugate();
-        return new MyComplex(c);
+        if (isNaN())
+        {
+            return new MyComplex(Double.NaN, Double.NaN);
+        }
+        return new MyComplex(real, -imaginary);
     }
 
     public MyComplex invert ()
@@ -218,82 +249,109 @@ public class MyComplex
         return m;
     }
 
+    /*
+     * The arithmetic below works on the doubles directly but follows
+     * the special cases of commons-math Complex exactly, so results are
+     * the same as before, without creating intermediate objects.
+     */
+
     public MyComplex add (MyComplex n)
     {
-        Complex c = new Complex(real, imaginary);
-        Complex d = new Complex(n.real, n.imaginary);
-        c = c.add(d);
-        MyComplex m = new MyComplex(c);
-        if (type == ValueType.REAL && n.type == ValueType.REAL)
-            m.type = ValueType.REAL;
-        return m;
+        if (isNaN() || n.isNaN())
+        {
+            return nan(n);
+        }
+        return new MyComplex(real + n.real, imaginary + n.imaginary, resultType(n));
     }
 
-//    public MyComplex nthRoot(int n)
-//    {
-//        Complex c = new Complex (real, imaginary);
-//        c = c.c.nthRoot(n);
-//        return new MyComplex (c.getReal(), c.getImaginary());
-//    }
-
-//    public MyComplex remainder (MyComplex n, MathContext m)
-//    {
-//
-//        Complex c = new Complex (real, imaginary);
-//        Complex d = new Complex (n.real, n.imaginary);
-//        c = c.subtract(d);
-//        return new MyComplex (c.getReal(), c.getImaginary());
-//    }
-
     public MyComplex subtract (MyComplex n)
     {
-        Complex c = new Complex(real, imaginary);
-        Complex d = new Complex(n.real, n.imaginary);
-        c = c.subtract(d);
-        MyComplex m = new MyComplex(c);
-        if (type == ValueType.REAL && n.type == ValueType.REAL)
-            m.type = ValueType.REAL;
-        return m;
+        if (isNaN() || n.isNaN())
+        {
+            return nan(n);
+        }
+        return new MyComplex(real - n.real, imaginary - n.imaginary, resultType(n));
     }
 
     // (a+bi)(c+di) = (ac−bd) + (ad+bc)i
     public MyComplex multiply (MyComplex n)
     {
-        Complex c = new Complex(real, imaginary);
-        Complex d = new Complex(n.real, n.imaginary);
-        c = c.multiply(d);
-        MyComplex m = new MyComplex(c);
-        if (type == ValueType.REAL && n.type == ValueType.REAL)
-            m.type = ValueType.REAL;
-        return m;
+        if (isNaN() || n.isNaN())
+        {
+            return nan(n);
+        }
+        if (Double.isInfinite(real) || Double.isInfinite(imaginary)
+                || Double.isInfinite(n.real) || Double.isInfinite(n.imaginary))
+        {
+            return new MyComplex(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, resultType(n));
+        }
+        return new MyComplex(real * n.real - imaginary * n.imaginary,
+                real * n.imaginary + imaginary * n.real, resultType(n));
     }
 
-//    public MyComplex pow (int n, MathContext m)
-//    {
-//        BigDecimal b = super.pow(n, m);
-//        return new MyComplex(b, BigDecimal.ZERO);
-//    }
-
     public MyComplex divide (MyComplex n)
     {
-        Complex c = new Complex(real, imaginary);
-        Complex d = new Complex(n.real, n.imaginary);
-        c = c.divide(d);
-        MyComplex m = new MyComplex(c);
-        if (type == ValueType.REAL && n.type == ValueType.REAL)
-            m.type = ValueType.REAL;
-        return m;
+        double c = n.real;
+        double d = n.imaginary;
+        if (isNaN() || n.isNaN() || (c == 0.0 && d == 0.0))
+        {
+            return nan(n);
+        }
+        if (n.isInfinite() && !isInfinite())
+        {
+            return new MyComplex(0.0, 0.0, resultType(n));
+        }
+        // Smith's algorithm, avoids overflow of c*c+d*d
+        if (FastMath.abs(c) < FastMath.abs(d))
+        {
+            double q = c / d;
+            double denominator = c * q + d;
+            return new MyComplex((real * q + imaginary) / denominator,
+                    (imaginary * q - real) / denominator, resultType(n));
+        }
+        double q = d / c;
+        double denominator = d * q + c;
+        return new MyComplex((imaginary * q + real) / denominator,
+                (imaginary - real * q) / denominator, resultType(n));
     }
 
+    /**
+     * Computes exp(log(this) * n) like commons-math does.
+     */
     public MyComplex pow (MyComplex n)
     {
-        Complex c = new Complex(real, imaginary);
-        Complex d = new Complex(n.real, n.imaginary);
-        c = c.pow(d);
-        MyComplex m = new MyComplex(c);
-        if (type == ValueType.REAL && n.type == ValueType.REAL)
-            m.type = ValueType.REAL;
-        return m;
+        if (isNaN())
+        {
+            return nan(n);
+        }
+        // log(this)
+        double lr = FastMath.log(abs());
+        double li = FastMath.atan2(imaginary, real);
+        // log(this) * n
+        double mr;
+        double mi;
+        if (Double.isNaN(lr) || Double.isNaN(li) || n.isNaN())
+        {
+            return nan(n);
+        }
+        if (Double.isInfinite(lr) || Double.isInfinite(li)
+                || Double.isInfinite(n.real) || Double.isInfinite(n.imaginary))
+        {
+            mr = Double.POSITIVE_INFINITY;
+            mi = Double.POSITIVE_INFINITY;
+        }
+        else
+        {
+            mr = lr * n.real - li * n.imaginary;
+            mi = lr * n.imaginary + li * n.real;
+        }
+        // exp(log(this) * n)
+        if (Double.isNaN(mr) || Double.isNaN(mi))
+        {
+            return nan(n);
+        }
+        double e = FastMath.exp(mr);
+        return new MyComplex(e * FastMath.cos(mi), e * FastMath.sin(mi), resultType(n));
     }
 
     public double angle ()
@@ -304,15 +362,61 @@ public class MyComplex
 
     public double abs ()
     {
-        Complex c = new Complex(real, imaginary);
-        return c.abs();
+        if (isNaN())
+        {
+            return Double.NaN;
+        }
+        if (isInfinite())
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (FastMath.abs(real) < FastMath.abs(imaginary))
+        {
+            if (imaginary == 0.0)
+            {
+                return FastMath.abs(real);
+            }
+            double q = real / imaginary;
+            return FastMath.abs(imaginary) * FastMath.sqrt(1 + q * q);
+        }
+        if (real == 0.0)
+        {
+            return FastMath.abs(imaginary);
+        }
+        double q = imaginary / real;
+        return FastMath.abs(real) * FastMath.sqrt(1 + q * q);
     }
 
     public MyComplex negate ()
     {
-        Complex c = new Complex(real, imaginary);
-        c = c.negate();
-        return new MyComplex(c);
+        if (isNaN())
+        {
+            return new MyComplex(Double.NaN, Double.NaN);
+        }
+        return new MyComplex(-real, -imaginary);
+    }
+
+    public boolean isNaN ()
+    {
+        return Double.isNaN(real) || Double.isNaN(imaginary);
+    }
+
+    public boolean isInfinite ()
+    {
+        return !isNaN() && (Double.isInfinite(real) || Double.isInfinite(imaginary));
+    }
+
+    /**
+     * Type of an arithmetic result: real only if both operands are.
+     */
+    private ValueType resultType (MyComplex n)
+    {
+        return type == ValueType.REAL && n.type == ValueType.REAL ? ValueType.REAL : ValueType.COMPLEX;
+    }
+
+    private MyComplex nan (MyComplex n)
+    {
+        return new MyComplex(Double.NaN, Double.NaN, resultType(n));
     }
 
     private String fmt (Double d)
@@ -366,6 +470,14 @@ public class MyComplex
 
     public static double[] getRealArray (List<MyComplex>l)
     {
+        if (l instanceof PackedArray)
+        {
+            return ((PackedArray) l).reals.clone();
+        }
+        if (l instanceof ArithmeticSequence)
+        {
+            return ((ArithmeticSequence) l).toDoubles();
+        }
         double[] d = new double[l.size()];
         for (int s=0; s<l.size(); s++)
         {
@@ -374,6 +486,19 @@ public class MyComplex
         return d;
     }
 
+    /**
+     * Like {@link #getRealArray(List)}, but gives packed arrays without
+     * copying them, for callers that only read the result.
+     */
+    static double[] reals (List<MyComplex> l)
+    {
+        if (l instanceof PackedArray)
+        {
+            return ((PackedArray) l).reals;
+        }
+        return getRealArray(l);
+    }
+
     public static List<MyComplex> listFromRealArray (double[] d)
     {
         ArrayList<MyComplex> l = new ArrayList<>();
@@ -0,0 +1,307 @@
+package com.udojava.evalex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Node of a compiled expression. An expression is parsed once into a tree
+ * of nodes, so evaluating it again does no string work.
+ */
+abstract class Node
+{
+    /**
+     * Where the source text of this node starts and ends in the
+     * expression, -1 if there is none, like for the 0 the parser passes
+     * to unary operators.
+     */
+    int start = -1;
+    int end = -1;
+
+    /**
+     * Sets where the source text of this node is, while it is created.
+     *
+     * @return This node.
+     */
+    Node at (int start, int end)
+    {
+        this.start = start;
+        this.end = end;
+        return this;
+    }
+
+    /**
+     * Takes the source text of a node this one replaces.
+     *
+     * @return This node.
+     */
+    Node at (Node n)
+    {
+        return at(n.start, n.end);
+    }
+
+    /**
+     * Evaluates this node.
+     *
+     * @param ex The expression that provides variables and history.
+     * @return The result.
+     */
+    abstract MyComplex eval (Expression ex);
+
+    /**
+     * Infers the type of the value this node evaluates to.
+     *
+     * @param ex The expression that provides variables and history.
+     * @return The type, or <code>null</code> if it is not known before
+     * evaluation.
+     */
+    abstract ValueType type (Expression ex);
+
+    /**
+     * A constant number.
+     */
+    static final class Literal extends Node
+    {
+        final MyComplex value;
+
+        Literal (MyComplex value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        MyComplex eval (Expression ex)
+        {
+            return value;
+        }
+
+        @Override
+        ValueType type (Expression ex)
+        {
+            return value.type;
+        }
+    }
+
+    /**
+     * A variable reference. Operands of operators that may assign are
+     * handed out as {@link PitDecimal} so that <code>-&gt;</code> can find
+     * out the name of its target.
+     */
+    static final class Var extends Node
+    {
+        final String name;
+        /**
+         * Where a frame keeps the variable.
+         */
+        final int slot;
+        final boolean named;
+
+        Var (String name, int slot, boolean named)
+        {
+            this.name = name;
+            this.slot = slot;
+            this.named = named;
+        }
+
+        @Override
+        MyComplex eval (Expression ex)
+        {
+            MyComplex v = ex.getVariable(slot, name);
+            if (!named || v.type == ValueType.ARRAY)
+            {
+                return v;
+            }
+            PitDecimal bd = new PitDecimal(v.real, v.imaginary);
+            bd.type = v.type;
+            bd.setVarToken(name);
+            return bd;
+        }
+
+        @Override
+        ValueType type (Expression ex)
+        {
+            return ex.getVariable(slot, name).type;
+        }
+    }
+
+    /**
+     * A binary operator applied to two operands. A {@link LazyOperator} gets
+     * its operands unevaluated.
+     */
+    static final class Op extends Node
+    {
+        final Operator op;
+        final Node left;
+        final Node right;
+
+        Op (Operator op, Node left, Node right)
+        {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        MyComplex eval (Expression ex)
+        {
+            if (op instanceof LazyOperator)
+            {
+                return ((LazyOperator) op).lazyEval(() -> left.eval(ex), () -> right.eval(ex)).eval();
+            }
+            return op.eval(ex, left.eval(ex), right.eval(ex));
+        }
+
+        @Override
+        ValueType type (Expression ex)
+        {
+            return op.resultType(left.type(ex), right.type(ex));
+        }
+    }
+
+    /**
+     * A function call with its resolved implementation.
+     */
+    static final class Call extends Node
+    {
+        final LazyFunction function;
+        final Node[] params;
+
+        Call (LazyFunction function, Node[] params)
+        {
+            this.function = function;
+            this.params = params;
+        }
+
+        @Override
+        MyComplex eval (Expression ex)
+        {
+            List<LazyNumber> lazyParams = new ArrayList<>(params.length);
+            for (Node p : params)
+            {
+                lazyParams.add(() -> p.eval(ex));
+            }
+            return function.lazyEval(ex, lazyParams).eval();
+        }
+
+        @Override
+        ValueType type (Expression ex)
+        {
+            ValueType[] types = new ValueType[params.length];
+            for (int n = 0; n < params.length; n++)
+            {
+                types[n] = params[n].type(ex);
+            }
+            return function.resultType(types);
+        }
+    }
+
+    /**
+     * A subexpression that occurs more than once in an expression. It is
+     * evaluated on first use and its value is kept by the evaluating
+     * expression for the rest of the same evaluation.
+     */
+    static final class Shared extends Node
+    {
+        final Node node;
+        /**
+         * Where the evaluating expression keeps the value.
+         */
+        final int slot;
+
+        Shared (Node node, int slot)
+        {
+            this.node = node;
+            this.slot = slot;
+        }
+
+        @Override
+        MyComplex eval (Expression ex)
+        {
+            return ex.evalShared(slot, node);
+        }
+
+        @Override
+        ValueType type (Expression ex)
+        {
+            return node.type(ex);
+        }
+    }
+
+    /**
+     * Base of the classes generated by {@link BytecodeCompiler}, keeps the
+     * interpreted tree it was generated from.
+     */
+    abstract static class Generated extends Node
+    {
+        Node source;
+
+        @Override
+        ValueType type (Expression ex)
+        {
+            return source.type(ex);
+        }
+    }
+
+    /**
+     * An expression proven to be real, evaluated in primitive doubles.
+     * Falls back to the complex evaluation if a variable no longer holds
+     * a real or an intermediate result is not real.
+     */
+    static final class RealPath extends Node
+    {
+        final RealNode real;
+        final Node fallback;
+
+        RealPath (RealNode real, Node fallback)
+        {
+            this.real = real;
+            this.fallback = fallback;
+        }
+
+        /**
+         * Evaluates on the real path, a result that isn't a number again
+         * with the fallback, which knows if its imaginary part is a number.
+         */
+        @Override
+        MyComplex eval (Expression ex)
+        {
+            try
+            {
+                double v = real.eval(ex);
+                if (!Double.isNaN(v))
+                {
+                    return new MyComplex(v);
+                }
+            }
+            catch (UnsupportedOperationException e)
+            {
+                // not real after all
+            }
+            return fallback.eval(ex);
+        }
+
+        /**
+         * Evaluates without creating any objects as long as the expression
+         * stays real.
+         *
+         * @param ex The expression that provides variables and history.
+         * @return The real part of the result.
+         */
+        double evalReal (Expression ex)
+        {
+            try
+            {
+                return real.eval(ex);
+            }
+            catch (UnsupportedOperationException e)
+            {
+                return fallback.eval(ex).real;
+            }
+        }
+
+        @Override
+        ValueType type (Expression ex)
+        {
+            return fallback.type(ex);
+        }
+    }
+}
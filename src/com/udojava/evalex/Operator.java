@@ -14,6 +14,10 @@ public abstract class Operator extends Mathobject
      * Operator is left associative.
      */
     private final boolean leftAssoc;
+    /**
+     * Type of the result, <code>null</code> if it depends on the operands.
+     */
+    private final ValueType resultType;
 
     /**
      * Creates a new operator.
@@ -29,11 +33,22 @@ public abstract class Operator extends Mathobject
     }
 
     public Operator (String name, int precedence, boolean leftAssoc, String desc)
+    {
+        this (name, precedence, leftAssoc, desc, null);
+    }
+
+    /**
+     * Creates a new operator that always gives a result of the same type.
+     *
+     * @param resultType The type of all results.
+     */
+    public Operator (String name, int precedence, boolean leftAssoc, String desc, ValueType resultType)
     {
         this.name = name;
         this.precedence = precedence;
         this.leftAssoc = leftAssoc;
         this.desc = desc;
+        this.resultType = resultType;
     }
 
     public int getPrecedence ()
@@ -46,6 +61,30 @@ public abstract class Operator extends Mathobject
         return leftAssoc;
     }
 
+    /**
+     * Tells if the operator is written in front of its only operand, like
+     * <code>~5</code>. The parser passes 0 as operand 1 and the operand as
+     * operand 2.
+     *
+     * @return <code>false</code> unless overridden.
+     */
+    public boolean isPrefix ()
+    {
+        return false;
+    }
+
+    /**
+     * Tells if the operator is written after its only operand, like
+     * <code>5!</code>. The parser passes the operand as operand 1 and 0 as
+     * operand 2.
+     *
+     * @return <code>false</code> unless overridden.
+     */
+    public boolean isPostfix ()
+    {
+        return false;
+    }
+
     /**
      * Implementation for this operator.
      *
@@ -54,4 +93,46 @@ public abstract class Operator extends Mathobject
      * @return The result of the operation.
      */
     public abstract MyComplex eval (MyComplex v1, MyComplex v2);
+
+    /**
+     * Implementation for this operator with access to the evaluating
+     * expression. Operators that need its variables or history override this.
+     *
+     * @param ex The expression being evaluated.
+     * @param v1 Operand 1.
+     * @param v2 Operand 2.
+     * @return The result of the operation.
+     */
+    public MyComplex eval (Expression ex, MyComplex v1, MyComplex v2)
+    {
+        return eval(v1, v2);
+    }
+
+    /**
+     * Tells the type of the result for operands of the given types.
+     *
+     * @param t1 Type of operand 1.
+     * @param t2 Type of operand 2.
+     * @return The result type, or <code>null</code> if it is not known
+     * before evaluation.
+     */
+    public ValueType resultType (ValueType t1, ValueType t2)
+    {
+        return resultType;
+    }
+
+    /**
+     * Implementation for real operands giving a real result, used by the
+     * allocation free evaluation of real expressions. Operators whose
+     * {@link #resultType} is {@link ValueType#REAL} for real operands can
+     * override this; it must give the same result as {@link #eval}.
+     *
+     * @param v1 Operand 1.
+     * @param v2 Operand 2.
+     * @return The result of the operation.
+     */
+    public double evalReal (double v1, double v2)
+    {
+        throw new UnsupportedOperationException(name);
+    }
 }
@@ -0,0 +1,382 @@
+package com.udojava.evalex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Rewrites the node tree of an expression once when it is compiled, so
+ * that work which doesn't depend on the variables isn't repeated by every
+ * evaluation.
+ */
+final class Optimizer
+{
+    private static final Operator AND = Builtins.DEFAULT.getOps().get("&&");
+    private static final Operator OR = Builtins.DEFAULT.getOps().get("||");
+    private static final LazyFunction IF = Builtins.DEFAULT.getFuncs().get("IF");
+
+    private Optimizer ()
+    {
+    }
+
+    /**
+     * Replaces every subtree that only uses literals and constants (see
+     * {@link Variables#putConstant}) and pure operators and functions by a
+     * literal holding its value. Subtrees whose evaluation fails or gives an
+     * array are left alone, so they behave as before when evaluated. The
+     * operands of lazy operators and functions are only folded once it is
+     * known that they are evaluated, see {@link #foldLazy}.
+     *
+     * @param n  The root of the tree.
+     * @param ex The expression that provides the constants.
+     * @return The folded tree.
+     */
+    static Node fold (Node n, Expression ex)
+    {
+        if (BytecodeCompiler.isLazy(n))
+        {
+            return foldLazy(n, ex);
+        }
+        if (n instanceof Node.Op)
+        {
+            Node.Op o = (Node.Op) n;
+            Node left = fold(o.left, ex);
+            Node right = fold(o.right, ex);
+            Node folded = left == o.left && right == o.right ? n : new Node.Op(o.op, left, right).at(n);
+            return o.op.isPure() && isConstant(left, ex) && isConstant(right, ex)
+                    ? evaluate(folded, ex)
+                    : folded;
+        }
+        if (n instanceof Node.Call)
+        {
+            Node.Call c = (Node.Call) n;
+            Node[] params = new Node[c.params.length];
+            boolean changed = false;
+            boolean constant = c.function.isPure();
+            for (int i = 0; i < params.length; i++)
+            {
+                params[i] = fold(c.params[i], ex);
+                changed |= params[i] != c.params[i];
+                constant &= isConstant(params[i], ex);
+            }
+            Node folded = changed ? new Node.Call(c.function, params).at(n) : n;
+            return constant ? evaluate(folded, ex) : folded;
+        }
+        // Bare constants stay variables, an assignment to one must still
+        // find its name
+        return n;
+    }
+
+    /**
+     * Folds a lazy operator or function. Its operands are only evaluated
+     * when it asks for them, so nothing inside them is computed now, except
+     * the condition of <code>IF</code>, <code>&amp;&amp;</code> and
+     * <code>||</code>, which is always evaluated. If the condition is
+     * constant only the operand it selects is kept, and folded.
+     */
+    private static Node foldLazy (Node n, Expression ex)
+    {
+        if (n instanceof Node.Op && (((Node.Op) n).op == AND || ((Node.Op) n).op == OR))
+        {
+            Node.Op o = (Node.Op) n;
+            Node left = fold(o.left, ex);
+            if (!isConstant(left, ex))
+            {
+                return left == o.left ? n : new Node.Op(o.op, left, o.right).at(n);
+            }
+            boolean taken = left.eval(ex).real != 0.0;
+            if (taken == (o.op == OR))
+            {
+                // decided by the condition, the other operand isn't used
+                return evaluate(new Node.Op(o.op, left, o.right).at(n), ex);
+            }
+            Node right = fold(o.right, ex);
+            Node folded = new Node.Op(o.op, left, right).at(n);
+            return isConstant(right, ex) ? evaluate(folded, ex) : folded;
+        }
+        if (n instanceof Node.Call && ((Node.Call) n).function == IF)
+        {
+            Node.Call c = (Node.Call) n;
+            Node condition = fold(c.params[0], ex);
+            if (!isConstant(condition, ex))
+            {
+                return condition == c.params[0] ? n
+                        : new Node.Call(c.function, new Node[]{condition, c.params[1], c.params[2]}).at(n);
+            }
+            return fold(condition.eval(ex).real == 0.0 ? c.params[2] : c.params[1], ex);
+        }
+        return n;
+    }
+
+    private static boolean isConstant (Node n, Expression ex)
+    {
+        return n instanceof Node.Literal
+                || n instanceof Node.Var && ex.getVariables().isConstant(((Node.Var) n).name);
+    }
+
+    private static Node evaluate (Node n, Expression ex)
+    {
+        try
+        {
+            MyComplex v = n.eval(ex);
+            if (v.type == ValueType.ARRAY)
+            {
+                return n;
+            }
+            return new Node.Literal(new MyComplex(v.real, v.imaginary, v.type)).at(n);
+        }
+        catch (RuntimeException e)
+        {
+            return n;
+        }
+    }
+
+    /**
+     * Makes structurally identical subtrees one {@link Node.Shared} node,
+     * so each is evaluated once per evaluation. Literals and variables are
+     * cheaper to evaluate than to share and are left as they are. Trees
+     * with impure operators or functions aren't changed at all, since an
+     * assignment between two occurrences would make them differ.
+     *
+     * @param root The root of the tree.
+     * @return The tree with common subexpressions shared.
+     */
+    static Node shareCommon (Node root)
+    {
+        if (!isPure(root))
+        {
+            return root;
+        }
+        Map<Node, Integer> ids = new IdentityHashMap<>();
+        identify(root, ids, new HashMap<>());
+        int[] uses = new int[ids.size()];
+        countUses(root, ids, uses);
+        return rebuild(root, ids, uses, new HashMap<>(), new int[1]);
+    }
+
+    /**
+     * Counts the distinct shared nodes of a tree.
+     *
+     * @param root The root of the tree.
+     * @return The number of shared nodes.
+     */
+    static int sharedNodes (Node root)
+    {
+        Map<Node, Boolean> seen = new IdentityHashMap<>();
+        evaluatedNodes(root, seen);
+        return seen.size();
+    }
+
+    /**
+     * Counts the nodes one evaluation of a tree runs through, a shared
+     * node only on its first use.
+     *
+     * @param root The root of the tree.
+     * @return The number of nodes.
+     */
+    static int evaluatedNodes (Node root)
+    {
+        return evaluatedNodes(root, new IdentityHashMap<>());
+    }
+
+    private static int evaluatedNodes (Node n, Map<Node, Boolean> seen)
+    {
+        if (n instanceof Node.Shared)
+        {
+            return seen.put(n, Boolean.TRUE) == null ? evaluatedNodes(((Node.Shared) n).node, seen) : 0;
+        }
+        int count = 1;
+        for (Node child : children(n))
+        {
+            count += evaluatedNodes(child, seen);
+        }
+        return count;
+    }
+
+    /**
+     * Measures how many levels a tree has. Unlike the other passes this
+     * takes no Java stack per level, so it can tell which trees are too
+     * deep for them.
+     *
+     * @param root The root of the tree.
+     * @return The number of nodes on the longest path from the root.
+     */
+    static int depth (Node root)
+    {
+        Deque<Node> nodes = new ArrayDeque<>();
+        Deque<Integer> depths = new ArrayDeque<>();
+        nodes.push(root);
+        depths.push(1);
+        int max = 0;
+        while (!nodes.isEmpty())
+        {
+            Node n = nodes.pop();
+            int d = depths.pop();
+            max = Math.max(max, d);
+            for (Node child : children(n))
+            {
+                nodes.push(child);
+                depths.push(d + 1);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Tells if a tree only has pure operators and functions.
+     *
+     * @param n The root of the tree.
+     * @return <code>true</code> if evaluating it has no side effects.
+     */
+    static boolean isPure (Node n)
+    {
+        if (n instanceof Node.Shared)
+        {
+            return isPure(((Node.Shared) n).node);
+        }
+        if (n instanceof Node.RealPath)
+        {
+            return isPure(((Node.RealPath) n).fallback);
+        }
+        if (n instanceof Node.Generated)
+        {
+            return isPure(((Node.Generated) n).source);
+        }
+        if (n instanceof Profiler.Probe)
+        {
+            return isPure(((Profiler.Probe) n).node);
+        }
+        if (n instanceof Program)
+        {
+            return ((Program) n).pure;
+        }
+        if (n instanceof Node.Op && !((Node.Op) n).op.isPure()
+                || n instanceof Node.Call && !((Node.Call) n).function.isPure())
+        {
+            return false;
+        }
+        for (Node child : children(n))
+        {
+            if (!isPure(child))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static List<Node> children (Node n)
+    {
+        List<Node> children = new ArrayList<>(2);
+        if (n instanceof Node.Op)
+        {
+            children.add(((Node.Op) n).left);
+            children.add(((Node.Op) n).right);
+        }
+        else if (n instanceof Node.Call)
+        {
+            for (Node p : ((Node.Call) n).params)
+            {
+                children.add(p);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Numbers the nodes so that structurally identical ones get the same id.
+     *
+     * @return The id of the node.
+     */
+    private static int identify (Node n, Map<Node, Integer> ids, Map<String, Integer> keys)
+    {
+        StringBuilder key = new StringBuilder();
+        if (n instanceof Node.Literal)
+        {
+            MyComplex v = ((Node.Literal) n).value;
+            key.append("L").append(v.type).append(' ').append(Double.doubleToLongBits(v.real))
+                    .append(' ').append(Double.doubleToLongBits(v.imaginary));
+        }
+        else if (n instanceof Node.Var)
+        {
+            key.append("V").append(((Node.Var) n).name.toUpperCase(Locale.ROOT));
+        }
+        else
+        {
+            key.append(n instanceof Node.Op ? "O" + ((Node.Op) n).op.getName()
+                    : "F" + ((Node.Call) n).function.getName());
+            for (Node child : children(n))
+            {
+                key.append(' ').append(identify(child, ids, keys));
+            }
+        }
+        Integer id = keys.get(key.toString());
+        if (id == null)
+        {
+            id = keys.size();
+            keys.put(key.toString(), id);
+        }
+        ids.put(n, id);
+        return id;
+    }
+
+    /**
+     * Counts how often each subtree is used, not descending into repeated
+     * occurrences since those won't be evaluated.
+     */
+    private static void countUses (Node n, Map<Node, Integer> ids, int[] uses)
+    {
+        if (uses[ids.get(n)]++ == 0)
+        {
+            for (Node child : children(n))
+            {
+                countUses(child, ids, uses);
+            }
+        }
+    }
+
+    /**
+     * @param slots Counts the shared nodes created so far.
+     */
+    private static Node rebuild (Node n, Map<Node, Integer> ids, int[] uses, Map<Integer, Node> built,
+                                 int[] slots)
+    {
+        if (n instanceof Node.Literal || n instanceof Node.Var)
+        {
+            return n;
+        }
+        int id = ids.get(n);
+        Node b = built.get(id);
+        if (b != null)
+        {
+            return b;
+        }
+        if (n instanceof Node.Op)
+        {
+            Node.Op o = (Node.Op) n;
+            b = new Node.Op(o.op, rebuild(o.left, ids, uses, built, slots),
+                    rebuild(o.right, ids, uses, built, slots)).at(n);
+        }
+        else
+        {
+            Node.Call c = (Node.Call) n;
+            Node[] params = new Node[c.params.length];
+            for (int i = 0; i < params.length; i++)
+            {
+                params[i] = rebuild(c.params[i], ids, uses, built, slots);
+            }
+            b = new Node.Call(c.function, params).at(n);
+        }
+        if (uses[id] > 1)
+        {
+            b = new Node.Shared(b, slots[0]++).at(n);
+        }
+        built.put(id, b);
+        return b;
+    }
+}
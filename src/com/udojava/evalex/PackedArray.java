@@ -0,0 +1,87 @@
+package com.udojava.evalex;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Elements of an array of numbers of the same type kept in primitive
+ * arrays, so a million element array is two or three objects instead of a
+ * million. Elements are created when they are read. Arrays whose elements
+ * are arrays or of different types stay lists of objects.
+ */
+final class PackedArray extends AbstractList<MyComplex> implements RandomAccess
+{
+    final double[] reals;
+    /**
+     * <code>null</code> if the elements are real.
+     */
+    final double[] imaginaries;
+
+    /**
+     * Wraps the given arrays, which must not be changed afterwards.
+     */
+    PackedArray (double[] reals, double[] imaginaries)
+    {
+        this.reals = reals;
+        this.imaginaries = imaginaries;
+    }
+
+    /**
+     * Packs a list if all elements are real or all are complex.
+     *
+     * @param l The elements.
+     * @return The packed elements, <code>null</code> if they can't be packed.
+     */
+    static PackedArray pack (List<MyComplex> l)
+    {
+        if (l instanceof PackedArray)
+        {
+            return (PackedArray) l;
+        }
+        if (l.isEmpty())
+        {
+            return null;
+        }
+        ValueType type = l.get(0).type;
+        if (type != ValueType.REAL && type != ValueType.COMPLEX)
+        {
+            return null;
+        }
+        double[] reals = new double[l.size()];
+        double[] imaginaries = type == ValueType.COMPLEX ? new double[l.size()] : null;
+        for (int n = 0; n < reals.length; n++)
+        {
+            MyComplex v = l.get(n);
+            if (v.type != type || imaginaries == null && v.imaginary != 0.0)
+            {
+                return null;
+            }
+            reals[n] = v.real;
+            if (imaginaries != null)
+            {
+                imaginaries[n] = v.imaginary;
+            }
+        }
+        return new PackedArray(reals, imaginaries);
+    }
+
+    boolean isReal ()
+    {
+        return imaginaries == null;
+    }
+
+    @Override
+    public MyComplex get (int index)
+    {
+        return imaginaries == null
+                ? new MyComplex(reals[index], 0.0, ValueType.REAL)
+                : new MyComplex(reals[index], imaginaries[index], ValueType.COMPLEX);
+    }
+
+    @Override
+    public int size ()
+    {
+        return reals.length;
+    }
+}
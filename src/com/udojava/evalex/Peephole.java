@@ -0,0 +1,329 @@
+package com.udojava.evalex;
+
+/**
+ * Replaces built-in operators applied to a literal by cheaper ones, once
+ * the tree is folded:
+ * <ul>
+ * <li><code>x^n</code> for small integers <code>n</code> is computed by
+ * squaring instead of by logarithm and exponential,</li>
+ * <li><code>x/c</code> divides by the real <code>c</code> directly, or
+ * multiplies by its reciprocal if that is exact,</li>
+ * <li><code>x*1</code>, <code>1*x</code>, <code>x+0</code>,
+ * <code>0+x</code> and <code>x-0</code> give <code>x</code>.</li>
+ * </ul>
+ * The replacements handle real and complex numbers whose results they
+ * give exactly like the built-in operator; for arrays, zero, NaN and
+ * infinite values they call the built-in operator, as for integer powers
+ * whose squares overflow or underflow. Only integer powers differ, by
+ * rounding, and are exact where the logarithm left a tiny imaginary part,
+ * like in <code>(-3)^2</code>.
+ */
+final class Peephole
+{
+    static final Operator ADD = Builtins.DEFAULT.getOps().get("+");
+    static final Operator SUBTRACT = Builtins.DEFAULT.getOps().get("-");
+    static final Operator MULTIPLY = Builtins.DEFAULT.getOps().get("*");
+    static final Operator DIVIDE = Builtins.DEFAULT.getOps().get("/");
+    static final Operator POWER = Builtins.DEFAULT.getOps().get("^");
+
+    /**
+     * The largest exponent computed by squaring, keeps the rounding errors
+     * of the multiplications below those of the logarithm.
+     */
+    private static final int MAX_EXPONENT = 32;
+
+    private Peephole ()
+    {
+    }
+
+    /**
+     * @param n The root of a folded tree.
+     * @return The tree with the operators replaced.
+     */
+    static Node reduce (Node n)
+    {
+        if (n instanceof Node.Call)
+        {
+            Node.Call c = (Node.Call) n;
+            Node[] params = new Node[c.params.length];
+            boolean changed = false;
+            for (int i = 0; i < params.length; i++)
+            {
+                params[i] = reduce(c.params[i]);
+                changed |= params[i] != c.params[i];
+            }
+            return changed ? new Node.Call(c.function, params).at(n) : n;
+        }
+        if (!(n instanceof Node.Op))
+        {
+            return n;
+        }
+        Node.Op o = (Node.Op) n;
+        Node left = reduce(o.left);
+        Node right = reduce(o.right);
+        Operator op = replacement(o.op, left, right);
+        if (op == null)
+        {
+            return left == o.left && right == o.right ? n : new Node.Op(o.op, left, right).at(n);
+        }
+        return new Node.Op(op, left, right).at(n);
+    }
+
+    /**
+     * @return The cheaper operator, <code>null</code> if there is none.
+     */
+    private static Operator replacement (Operator op, Node left, Node right)
+    {
+        double l = realLiteral(left);
+        double r = realLiteral(right);
+        if (op == POWER && r == Math.rint(r) && r != 0.0 && Math.abs(r) <= MAX_EXPONENT)
+        {
+            return new IntegerPower((int) r);
+        }
+        if (op == DIVIDE && r != 0.0 && Double.isFinite(r))
+        {
+            return new RealDivide(r);
+        }
+        if (op == MULTIPLY && (r == 1.0 || l == 1.0)
+                || op == ADD && (r == 0.0 || l == 0.0)
+                || op == SUBTRACT && r == 0.0)
+        {
+            return new Identity(op, Double.isNaN(r));
+        }
+        return null;
+    }
+
+    /**
+     * @return The value of a real literal, NaN if the node isn't one.
+     */
+    private static double realLiteral (Node n)
+    {
+        if (n instanceof Node.Literal)
+        {
+            MyComplex v = ((Node.Literal) n).value;
+            if (isReal(v))
+            {
+                return v.real;
+            }
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Tells if a value is a finite real number, as the built-in operators
+     * compute them in doubles.
+     */
+    static boolean isReal (MyComplex v)
+    {
+        return v.type == ValueType.REAL && v.imaginary == 0.0 && Double.isFinite(v.real);
+    }
+
+    /**
+     * Base of the replacements, they take the place of a built-in operator
+     * and call it for what they don't handle themselves.
+     */
+    private abstract static class Replacement extends Operator
+    {
+        final Operator builtin;
+
+        Replacement (Operator builtin)
+        {
+            super(builtin.getName(), builtin.getPrecedence(), builtin.isLeftAssoc(), builtin.getDescription());
+            this.builtin = builtin;
+        }
+
+        @Override
+        public boolean isPure ()
+        {
+            return builtin.isPure();
+        }
+
+        @Override
+        public ValueType resultType (ValueType t1, ValueType t2)
+        {
+            return builtin.resultType(t1, t2);
+        }
+
+        @Override
+        public double evalReal (double v1, double v2)
+        {
+            return builtin.evalReal(v1, v2);
+        }
+    }
+
+    /**
+     * <code>x^n</code> by squaring.
+     */
+    private static final class IntegerPower extends Replacement
+    {
+        private final int exponent;
+
+        IntegerPower (int exponent)
+        {
+            super(POWER);
+            this.exponent = exponent;
+        }
+
+        @Override
+        public MyComplex eval (MyComplex v1, MyComplex v2)
+        {
+            if (isReal(v1) && v1.real != 0.0)
+            {
+                double p = power(v1.real);
+                if (Double.isFinite(p))
+                {
+                    return new MyComplex(p, 0.0, ValueType.REAL);
+                }
+            }
+            else if (v1.type != ValueType.ARRAY && !v1.isNaN() && !v1.isInfinite()
+                    && (v1.real != 0.0 || v1.imaginary != 0.0))
+            {
+                MyComplex p = v1;
+                MyComplex result = null;
+                for (int n = Math.abs(exponent); n > 0; n >>= 1)
+                {
+                    if ((n & 1) != 0)
+                    {
+                        result = result == null ? p : result.multiply(p);
+                    }
+                    if (n > 1)
+                    {
+                        p = p.multiply(p);
+                    }
+                }
+                if (result.isInfinite() || Math.hypot(result.real, result.imaginary) < Double.MIN_NORMAL)
+                {
+                    return builtin.eval(v1, v2);   // see power(double)
+                }
+                if (exponent < 0)
+                {
+                    result = new MyComplex(1.0, 0.0, v1.type).divide(result);
+                }
+                if (!result.isNaN() && !result.isInfinite())
+                {
+                    return result;
+                }
+            }
+            return builtin.eval(v1, v2);
+        }
+
+        @Override
+        public double evalReal (double v1, double v2)
+        {
+            if (v1 != 0.0 && Double.isFinite(v1))
+            {
+                double p = power(v1);
+                if (Double.isFinite(p))
+                {
+                    return p;
+                }
+            }
+            return builtin.evalReal(v1, v2);
+        }
+
+        private double power (double x)
+        {
+            double result = 1.0;
+            for (int n = Math.abs(exponent); n > 0; n >>= 1)
+            {
+                if ((n & 1) != 0)
+                {
+                    result *= x;
+                }
+                x *= x;
+            }
+            if (Double.isInfinite(result) || Math.abs(result) < Double.MIN_NORMAL)
+            {
+                // overflowed or lost bits as a subnormal number, so would
+                // its reciprocal; NaN leaves these to the built-in power
+                return Double.NaN;
+            }
+            return exponent < 0 ? 1.0 / result : result;
+        }
+    }
+
+    /**
+     * <code>x/c</code> for a real constant <code>c</code>.
+     */
+    private static final class RealDivide extends Replacement
+    {
+        private final double divisor;
+        /**
+         * The reciprocal of the divisor if it is exact, else 0.
+         */
+        private final double reciprocal;
+        /**
+         * What the built-in division adds to the dividend, a zero whose
+         * sign depends on the divisor.
+         */
+        private final double zero;
+
+        RealDivide (double divisor)
+        {
+            super(DIVIDE);
+            this.divisor = divisor;
+            double r = 1.0 / divisor;
+            this.reciprocal = Double.isFinite(r) && 1.0 / r == divisor && isPowerOfTwo(divisor) ? r : 0.0;
+            this.zero = 0.0 * (0.0 / divisor);
+        }
+
+        private static boolean isPowerOfTwo (double d)
+        {
+            long bits = Double.doubleToRawLongBits(d);
+            return (bits & 0x000fffffffffffffL) == 0 && Math.getExponent(d) >= Double.MIN_EXPONENT;
+        }
+
+        @Override
+        public MyComplex eval (MyComplex v1, MyComplex v2)
+        {
+            if (isReal(v1))
+            {
+                return new MyComplex(divide(v1.real), 0.0, ValueType.REAL);
+            }
+            return builtin.eval(v1, v2);
+        }
+
+        @Override
+        public double evalReal (double v1, double v2)
+        {
+            return Double.isFinite(v1) ? divide(v1) : builtin.evalReal(v1, v2);
+        }
+
+        private double divide (double x)
+        {
+            return reciprocal != 0.0 ? (zero + x) * reciprocal : (zero + x) / divisor;
+        }
+    }
+
+    /**
+     * <code>x*1</code>, <code>1*x</code>, <code>x+0</code>, <code>0+x</code>
+     * and <code>x-0</code>.
+     */
+    private static final class Identity extends Replacement
+    {
+        /**
+         * <code>true</code> if <code>x</code> is operand 2.
+         */
+        private final boolean right;
+
+        Identity (Operator builtin, boolean right)
+        {
+            super(builtin);
+            this.right = right;
+        }
+
+        @Override
+        public MyComplex eval (MyComplex v1, MyComplex v2)
+        {
+            MyComplex x = right ? v2 : v1;
+            // the built-in operators give +0 imaginary parts and turn -0
+            // into +0 when adding
+            if (isReal(x) && x.real != 0.0 && Double.doubleToRawLongBits(x.imaginary) == 0L
+                    && x.getClass() == MyComplex.class)
+            {
+                return x;
+            }
+            return builtin.eval(v1, v2);
+        }
+    }
+}
@@ -0,0 +1,335 @@
+package com.udojava.evalex;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measures how often each operator and function is evaluated, how long it
+ * takes and, where the JVM can tell, how many bytes it allocates. Only
+ * expressions compiled while the profiler is enabled are measured: their
+ * operator and function nodes are wrapped in probes, so expressions
+ * compiled while it is disabled run exactly as before.
+ * <p>
+ * The time of an operator or function is its own time, the time spent in
+ * the operators and functions of its operands is counted for those.
+ */
+public final class Profiler
+{
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+    /**
+     * <code>true</code> if allocated bytes can be read per thread.
+     */
+    private static final boolean ALLOCATIONS = allocationsSupported();
+    /**
+     * What reading the allocated bytes allocates itself.
+     */
+    private static final long READ_BYTES = ALLOCATIONS ? readBytes() : 0;
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Time and bytes of the probes nested in the one running on this thread.
+     */
+    private static final ThreadLocal<long[]> nested = ThreadLocal.withInitial(() -> new long[2]);
+    private static volatile boolean enabled = false;
+
+    private Profiler ()
+    {
+    }
+
+    /**
+     * Turns profiling on or off for expressions compiled from now on.
+     * The calculator drops its cached terms, so they get compiled again.
+     */
+    public static void setEnabled (boolean on)
+    {
+        enabled = on;
+    }
+
+    public static boolean isEnabled ()
+    {
+        return enabled;
+    }
+
+    /**
+     * Sets all counters to 0.
+     */
+    public static void reset ()
+    {
+        for (Entry e : entries.values())
+        {
+            e.reset();
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the JVM tells the bytes each thread
+     * allocates.
+     */
+    public static boolean isAllocationSupported ()
+    {
+        return ALLOCATIONS;
+    }
+
+    /**
+     * Gets the operators and functions evaluated since the last reset,
+     * the one that took most time first.
+     *
+     * @return Copies of the counters.
+     */
+    public static List<Entry> getEntries ()
+    {
+        List<Entry> list = new ArrayList<>();
+        for (Entry e : entries.values())
+        {
+            Entry copy = e.copy();
+            if (copy.count > 0)
+            {
+                list.add(copy);
+            }
+        }
+        list.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+        return list;
+    }
+
+    /**
+     * Formats the counters as a table.
+     *
+     * @return One line per operator or function, the one that took most
+     * time first.
+     */
+    public static String report ()
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "%-10s %-9s %10s %12s %10s %10s %12s%n",
+                "name", "kind", "calls", "total ms", "avg ns", "max ns", "bytes"));
+        for (Entry e : getEntries())
+        {
+            sb.append(String.format(Locale.ROOT, "%-10s %-9s %10d %12.3f %10d %10d %12s%n",
+                    e.name, e.kind, e.count, e.totalNanos / 1e6, e.totalNanos / e.count,
+                    e.maxNanos, ALLOCATIONS ? Long.toString(e.bytes) : "n/a"));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Wraps the operator and function nodes of a tree in probes. Shared
+     * nodes stay shared.
+     *
+     * @param n The root of the tree.
+     * @return The instrumented tree.
+     */
+    static Node instrument (Node n)
+    {
+        return instrument(n, new IdentityHashMap<>());
+    }
+
+    private static Node instrument (Node n, Map<Node, Node> shared)
+    {
+        if (n instanceof Node.Shared)
+        {
+            Node s = shared.get(n);
+            if (s == null)
+            {
+                s = new Node.Shared(instrument(((Node.Shared) n).node, shared),
+                        ((Node.Shared) n).slot).at(n);
+                shared.put(n, s);
+            }
+            return s;
+        }
+        if (n instanceof Node.Op)
+        {
+            Node.Op o = (Node.Op) n;
+            Node op = new Node.Op(o.op, instrument(o.left, shared), instrument(o.right, shared)).at(n);
+            return new Probe(op, entry("operator", o.op.getName())).at(n);
+        }
+        if (n instanceof Node.Call)
+        {
+            Node.Call c = (Node.Call) n;
+            Node[] params = new Node[c.params.length];
+            for (int i = 0; i < params.length; i++)
+            {
+                params[i] = instrument(c.params[i], shared);
+            }
+            Node call = new Node.Call(c.function, params).at(n);
+            return new Probe(call, entry("function", c.function.getName())).at(n);
+        }
+        return n;
+    }
+
+    private static Entry entry (String kind, String name)
+    {
+        return entries.computeIfAbsent(kind + " " + name, k -> new Entry(name, kind));
+    }
+
+    private static boolean allocationsSupported ()
+    {
+        try
+        {
+            com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) THREADS;
+            if (!t.isThreadAllocatedMemorySupported())
+            {
+                return false;
+            }
+            t.setThreadAllocatedMemoryEnabled(true);
+            return t.isThreadAllocatedMemoryEnabled();
+        }
+        catch (LinkageError | RuntimeException e)
+        {
+            return false;   // not a HotSpot based JVM
+        }
+    }
+
+    private static long allocatedBytes ()
+    {
+        return ((com.sun.management.ThreadMXBean) THREADS)
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static long readBytes ()
+    {
+        long before = allocatedBytes();
+        return allocatedBytes() - before;
+    }
+
+    /**
+     * Evaluates a node and counts the time and bytes it took, without
+     * those of the probes nested in it.
+     */
+    private static MyComplex measure (Node node, Expression ex, Entry entry)
+    {
+        long[] inner = nested.get();
+        long outerNanos = inner[0];
+        long outerBytes = inner[1];
+        inner[0] = 0;
+        inner[1] = 0;
+        long bytes = ALLOCATIONS ? allocatedBytes() : 0;
+        long start = System.nanoTime();
+        try
+        {
+            return node.eval(ex);
+        }
+        finally
+        {
+            long nanos = System.nanoTime() - start;
+            if (ALLOCATIONS)
+            {
+                bytes = allocatedBytes() - bytes - READ_BYTES;
+            }
+            entry.add(nanos - inner[0], bytes - inner[1]);
+            // the caller's probe counts this one as nested, with both reads
+            inner[0] = outerNanos + nanos;
+            inner[1] = outerBytes + bytes + 2 * READ_BYTES;
+        }
+    }
+
+    /**
+     * The counters of one operator or function.
+     */
+    public static final class Entry
+    {
+        private final String name;
+        private final String kind;
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+        private long bytes;
+
+        private Entry (String name, String kind)
+        {
+            this.name = name;
+            this.kind = kind;
+        }
+
+        private synchronized void add (long nanos, long allocated)
+        {
+            count++;
+            totalNanos += nanos;
+            maxNanos = Math.max(maxNanos, nanos);
+            bytes += allocated;
+        }
+
+        private synchronized void reset ()
+        {
+            count = totalNanos = maxNanos = bytes = 0;
+        }
+
+        private synchronized Entry copy ()
+        {
+            Entry e = new Entry(name, kind);
+            e.count = count;
+            e.totalNanos = totalNanos;
+            e.maxNanos = maxNanos;
+            e.bytes = bytes;
+            return e;
+        }
+
+        public String getName ()
+        {
+            return name;
+        }
+
+        /**
+         * @return <code>"operator"</code> or <code>"function"</code>.
+         */
+        public String getKind ()
+        {
+            return kind;
+        }
+
+        public long getCount ()
+        {
+            return count;
+        }
+
+        public long getTotalNanos ()
+        {
+            return totalNanos;
+        }
+
+        public long getMaxNanos ()
+        {
+            return maxNanos;
+        }
+
+        /**
+         * @return The bytes allocated, 0 if the JVM doesn't tell.
+         */
+        public long getBytes ()
+        {
+            return bytes;
+        }
+    }
+
+    /**
+     * Counts the evaluations of the operator or function node it wraps.
+     */
+    static final class Probe extends Node
+    {
+        final Node node;
+        final Entry entry;
+
+        Probe (Node node, Entry entry)
+        {
+            this.node = node;
+            this.entry = entry;
+        }
+
+        @Override
+        MyComplex eval (Expression ex)
+        {
+            return measure(node, ex, entry);
+        }
+
+        @Override
+        ValueType type (Expression ex)
+        {
+            return node.type(ex);
+        }
+    }
+}
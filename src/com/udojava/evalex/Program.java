@@ -0,0 +1,307 @@
+package com.udojava.evalex;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A node tree translated into a flat list of instructions that a loop
+ * runs on an operand stack, so that evaluating an expression doesn't take
+ * Java stack in proportion to its depth. The stack is allocated with the
+ * size the translation found to be needed.
+ * <p>
+ * Lazy operators and functions get their operands as programs of their
+ * own, shared subexpressions are programs evaluated once per evaluation.
+ */
+final class Program extends Node
+{
+    /**
+     * Pushes a constant.
+     */
+    private static final int LITERAL = 0;
+    /**
+     * Pushes the value of a {@link Node.Var}.
+     */
+    private static final int VAR = 1;
+    /**
+     * Replaces the two values on top by the result of an operator.
+     */
+    private static final int OP = 2;
+    /**
+     * Replaces the parameters on top by the result of a function.
+     */
+    private static final int CALL = 3;
+    /**
+     * Pushes the value of a node, a lazy operator or function or a shared
+     * subexpression.
+     */
+    private static final int NODE = 4;
+    /**
+     * Replaces <code>a, b, c</code> on top by <code>a*b+c</code>, with the
+     * built-in operators.
+     */
+    private static final int MUL_ADD = 5;
+    /**
+     * Replaces <code>c, a, b</code> on top by <code>c+a*b</code>.
+     */
+    private static final int ADD_MUL = 6;
+
+    /**
+     * Instructions, the opcode in the low 8 bits and the index of its
+     * argument in {@link #args} above.
+     */
+    private final int[] code;
+    private final Object[] args;
+    private final int maxStack;
+    /**
+     * The tree this program was translated from.
+     */
+    final Node source;
+    /**
+     * Whether the program only has pure operators and functions.
+     */
+    final boolean pure;
+
+    private Program (int[] code, Object[] args, int maxStack, Node source, boolean pure)
+    {
+        this.code = code;
+        this.args = args;
+        this.maxStack = maxStack;
+        this.source = source;
+        this.pure = pure;
+        at(source);
+    }
+
+    /**
+     * Translates a node tree. Only lazy operators and functions and shared
+     * subexpressions nested in each other take Java stack.
+     *
+     * @param root The root of the tree.
+     * @return The program.
+     */
+    static Program compile (Node root)
+    {
+        return compile(root, new IdentityHashMap<>());
+    }
+
+    /**
+     * @param shared The programs of the shared subexpressions translated
+     *               so far.
+     */
+    private static Program compile (Node root, Map<Node, Node> shared)
+    {
+        // children are pushed after their parent, so the reversed order
+        // has each node after its operands
+        List<Node> order = new ArrayList<>();
+        Deque<Node> pending = new ArrayDeque<>();
+        // products that an addition computes, they get no instruction
+        Map<Node, Boolean> fused = new IdentityHashMap<>();
+        pending.push(root);
+        while (!pending.isEmpty())
+        {
+            Node n = pending.pop();
+            order.add(n);
+            if (n instanceof Node.Op && !BytecodeCompiler.isLazy(n))
+            {
+                Node.Op o = (Node.Op) n;
+                if (o.op == Peephole.ADD && isProduct(o.left))
+                {
+                    fused.put(o.left, Boolean.TRUE);
+                }
+                else if (o.op == Peephole.ADD && isProduct(o.right))
+                {
+                    fused.put(o.right, Boolean.TRUE);
+                }
+                pending.push(o.left);
+                pending.push(o.right);
+            }
+            else if (n instanceof Node.Call && !BytecodeCompiler.isLazy(n))
+            {
+                for (Node p : ((Node.Call) n).params)
+                {
+                    pending.push(p);
+                }
+            }
+        }
+        int[] code = new int[order.size()];
+        int size = 0;
+        List<Object> args = new ArrayList<>();
+        boolean pure = true;
+        int depth = 0;
+        int maxStack = 0;
+        for (int i = order.size() - 1; i >= 0; i--)
+        {
+            Node n = order.get(i);
+            int opcode;
+            Object arg;
+            if (n instanceof Node.Literal)
+            {
+                opcode = LITERAL;
+                arg = ((Node.Literal) n).value;
+                depth++;
+            }
+            else if (n instanceof Node.Var)
+            {
+                opcode = VAR;
+                arg = n;
+                depth++;
+            }
+            else if (fused.containsKey(n))
+            {
+                continue;   // the operands stay on the stack
+            }
+            else if (n instanceof Node.Op && fused.containsKey(((Node.Op) n).left))
+            {
+                opcode = MUL_ADD;
+                arg = null;
+                depth -= 2;
+            }
+            else if (n instanceof Node.Op && fused.containsKey(((Node.Op) n).right))
+            {
+                opcode = ADD_MUL;
+                arg = null;
+                depth -= 2;
+            }
+            else if (n instanceof Node.Op && !BytecodeCompiler.isLazy(n))
+            {
+                opcode = OP;
+                arg = ((Node.Op) n).op;
+                pure &= ((Node.Op) n).op.isPure();
+                depth--;
+            }
+            else if (n instanceof Node.Call && !BytecodeCompiler.isLazy(n))
+            {
+                opcode = CALL;
+                arg = n;
+                pure &= ((Node.Call) n).function.isPure();
+                depth += 1 - ((Node.Call) n).params.length;
+            }
+            else
+            {
+                opcode = NODE;
+                arg = translate(n, shared);
+                pure &= Optimizer.isPure((Node) arg);
+                depth++;
+            }
+            maxStack = Math.max(maxStack, depth);
+            code[size++] = opcode | args.size() << 8;
+            args.add(arg);
+        }
+        return new Program(Arrays.copyOf(code, size), args.toArray(), maxStack, root, pure);
+    }
+
+    private static boolean isProduct (Node n)
+    {
+        return n instanceof Node.Op && ((Node.Op) n).op == Peephole.MULTIPLY;
+    }
+
+    /**
+     * Computes <code>a*b+c</code> or <code>c+a*b</code> like the built-in
+     * operators do, without the intermediate product if all are real.
+     */
+    private static MyComplex mulAdd (Expression ex, MyComplex a, MyComplex b, MyComplex c, boolean productFirst)
+    {
+        if (Peephole.isReal(a) && Peephole.isReal(b) && Peephole.isReal(c))
+        {
+            double p = a.real * b.real;
+            return new MyComplex(productFirst ? p + c.real : c.real + p, 0.0, ValueType.REAL);
+        }
+        MyComplex p = Peephole.MULTIPLY.eval(ex, a, b);
+        return productFirst ? Peephole.ADD.eval(ex, p, c) : Peephole.ADD.eval(ex, c, p);
+    }
+
+    /**
+     * Gives lazy operators and functions programs as operands and shared
+     * subexpressions a program to evaluate.
+     */
+    private static Node translate (Node n, Map<Node, Node> shared)
+    {
+        if (n instanceof Node.Shared)
+        {
+            Node s = shared.get(n);
+            if (s == null)
+            {
+                s = new Node.Shared(compile(((Node.Shared) n).node, shared), ((Node.Shared) n).slot).at(n);
+                shared.put(n, s);
+            }
+            return s;
+        }
+        if (n instanceof Node.Op)
+        {
+            Node.Op o = (Node.Op) n;
+            return new Node.Op(o.op, compile(o.left, shared), compile(o.right, shared)).at(n);
+        }
+        if (n instanceof Node.Call)
+        {
+            Node.Call c = (Node.Call) n;
+            Node[] params = new Node[c.params.length];
+            for (int i = 0; i < params.length; i++)
+            {
+                params[i] = compile(c.params[i], shared);
+            }
+            return new Node.Call(c.function, params).at(n);
+        }
+        return n;
+    }
+
+    @Override
+    MyComplex eval (Expression ex)
+    {
+        MyComplex[] stack = new MyComplex[maxStack];
+        int sp = 0;
+        for (int instruction : code)
+        {
+            Object arg = args[instruction >>> 8];
+            switch (instruction & 0xff)
+            {
+                case LITERAL:
+                    stack[sp++] = (MyComplex) arg;
+                    break;
+
+                case VAR:
+                    stack[sp++] = ((Node.Var) arg).eval(ex);
+                    break;
+
+                case OP:
+                    sp--;
+                    stack[sp - 1] = ((Operator) arg).eval(ex, stack[sp - 1], stack[sp]);
+                    break;
+
+                case CALL:
+                {
+                    Node.Call c = (Node.Call) arg;
+                    int n = c.params.length;
+                    List<MyComplex> params = Arrays.asList(Arrays.copyOfRange(stack, sp - n, sp));
+                    sp -= n;
+                    stack[sp++] = ((Function) c.function).evalParams(ex, params);
+                    break;
+                }
+
+                case NODE:
+                    stack[sp++] = ((Node) arg).eval(ex);
+                    break;
+
+                case MUL_ADD:
+                    sp -= 2;
+                    stack[sp - 1] = mulAdd(ex, stack[sp - 1], stack[sp], stack[sp + 1], true);
+                    break;
+
+                default:
+                    sp -= 2;
+                    stack[sp - 1] = mulAdd(ex, stack[sp], stack[sp + 1], stack[sp - 1], false);
+                    break;
+            }
+        }
+        return stack[0];
+    }
+
+    @Override
+    ValueType type (Expression ex)
+    {
+        return source.type(ex);
+    }
+}
@@ -0,0 +1,260 @@
+package com.udojava.evalex;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Node of an expression that is proven to be real. Evaluates in primitive
+ * doubles using the <code>evalReal</code> implementations of operators and
+ * functions, so no objects are created.
+ */
+abstract class RealNode
+{
+    /**
+     * Thrown when a value turns out not to be real, e.g. a variable was set
+     * to a complex number after compilation. Preallocated because it only
+     * signals to fall back to the complex evaluation.
+     */
+    static final UnsupportedOperationException NOT_REAL =
+            new UnsupportedOperationException("not real")
+            {
+                @Override
+                public synchronized Throwable fillInStackTrace ()
+                {
+                    return this;
+                }
+            };
+
+    /**
+     * Evaluates this node.
+     *
+     * @param ex The expression that provides the variables.
+     * @return The result.
+     * @throws UnsupportedOperationException if a value is not real.
+     */
+    abstract double eval (Expression ex);
+
+    /**
+     * Translates a node tree if every node in it is real and every operator
+     * and function used is pure and has a real implementation. Impure ones
+     * stay off this path, since a result that isn't real is evaluated
+     * again by the fallback, which would call them a second time.
+     *
+     * @param n  The root of the tree.
+     * @param ex The expression that provides the variable types.
+     * @return The translated tree or <code>null</code>.
+     */
+    static RealNode compile (Node n, Expression ex)
+    {
+        return compile(n, ex, new IdentityHashMap<>());
+    }
+
+    /**
+     * @param shared The translations of the shared nodes seen so far, so
+     *               they stay shared.
+     */
+    private static RealNode compile (Node n, Expression ex, Map<Node, RealNode> shared)
+    {
+        if (n instanceof Node.Shared)
+        {
+            RealNode s = shared.get(n);
+            if (s == null)
+            {
+                RealNode inner = compile(((Node.Shared) n).node, ex, shared);
+                if (inner == null)
+                {
+                    return null;
+                }
+                s = new Shared(inner, ((Node.Shared) n).slot);
+                shared.put(n, s);
+            }
+            return s;
+        }
+        if (n instanceof Node.Literal)
+        {
+            MyComplex v = ((Node.Literal) n).value;
+            return v.type == ValueType.REAL && v.imaginary == 0.0 ? new Literal(v.real) : null;
+        }
+        if (n instanceof Node.Var)
+        {
+            Node.Var v = (Node.Var) n;
+            return v.type(ex) == ValueType.REAL ? new Var(v.name, v.slot) : null;
+        }
+        if (n instanceof Node.Op)
+        {
+            Node.Op o = (Node.Op) n;
+            if (!o.op.isPure() || o.op.resultType(ValueType.REAL, ValueType.REAL) != ValueType.REAL
+                    || !Mathobject.overrides(o.op.getClass(), Operator.class, "evalReal",
+                    double.class, double.class))
+            {
+                return null;
+            }
+            RealNode left = compile(o.left, ex, shared);
+            RealNode right = compile(o.right, ex, shared);
+            if (left == null || right == null)
+            {
+                return null;
+            }
+            return o.op instanceof LazyOperator
+                    ? new LazyOp((LazyOperator) o.op, left, right)
+                    : new Op(o.op, left, right);
+        }
+        if (n instanceof Node.Call)
+        {
+            Node.Call c = (Node.Call) n;
+            if (!(c.function instanceof Function) || !c.function.isPure())
+            {
+                return null;
+            }
+            Function f = (Function) c.function;
+            if (c.params.length == 1 && f.getNumParams() == 1
+                    && f.resultType(ValueType.REAL) == ValueType.REAL
+                    && Mathobject.overrides(f.getClass(), Function.class, "evalReal",
+                    double.class))
+            {
+                RealNode p = compile(c.params[0], ex, shared);
+                return p != null ? new Call1(f, p) : null;
+            }
+            if (c.params.length == 2 && f.getNumParams() == 2
+                    && f.resultType(ValueType.REAL, ValueType.REAL) == ValueType.REAL
+                    && Mathobject.overrides(f.getClass(), Function.class, "evalReal",
+                    double.class, double.class))
+            {
+                RealNode p1 = compile(c.params[0], ex, shared);
+                RealNode p2 = compile(c.params[1], ex, shared);
+                return p1 != null && p2 != null ? new Call2(f, p1, p2) : null;
+            }
+        }
+        return null;
+    }
+
+    static final class Literal extends RealNode
+    {
+        final double value;
+
+        Literal (double value)
+        {
+            this.value = value;
+        }
+
+        @Override
+        double eval (Expression ex)
+        {
+            return value;
+        }
+    }
+
+    static final class Var extends RealNode
+    {
+        final String name;
+        final int slot;
+
+        Var (String name, int slot)
+        {
+            this.name = name;
+            this.slot = slot;
+        }
+
+        @Override
+        double eval (Expression ex)
+        {
+            return ex.getRealVariable(slot, name);
+        }
+    }
+
+    static final class Shared extends RealNode
+    {
+        final RealNode node;
+        final int slot;
+
+        Shared (RealNode node, int slot)
+        {
+            this.node = node;
+            this.slot = slot;
+        }
+
+        @Override
+        double eval (Expression ex)
+        {
+            return ex.evalSharedReal(slot, node);
+        }
+    }
+
+    static final class Op extends RealNode
+    {
+        final Operator op;
+        final RealNode left;
+        final RealNode right;
+
+        Op (Operator op, RealNode left, RealNode right)
+        {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double eval (Expression ex)
+        {
+            return op.evalReal(left.eval(ex), right.eval(ex));
+        }
+    }
+
+    static final class LazyOp extends RealNode
+    {
+        final LazyOperator op;
+        final RealNode left;
+        final RealNode right;
+
+        LazyOp (LazyOperator op, RealNode left, RealNode right)
+        {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double eval (Expression ex)
+        {
+            return op.evalReal(ex, left, right);
+        }
+    }
+
+    static final class Call1 extends RealNode
+    {
+        final Function function;
+        final RealNode param;
+
+        Call1 (Function function, RealNode param)
+        {
+            this.function = function;
+            this.param = param;
+        }
+
+        @Override
+        double eval (Expression ex)
+        {
+            return function.evalReal(param.eval(ex));
+        }
+    }
+
+    static final class Call2 extends RealNode
+    {
+        final Function function;
+        final RealNode param1;
+        final RealNode param2;
+
+        Call2 (Function function, RealNode param1, RealNode param2)
+        {
+            this.function = function;
+            this.param1 = param1;
+            this.param2 = param2;
+        }
+
+        @Override
+        double eval (Expression ex)
+        {
+            return function.evalReal(param1.eval(ex), param2.eval(ex));
+        }
+    }
+}
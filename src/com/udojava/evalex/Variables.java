@@ -3,6 +3,7 @@ package com.udojava.evalex;
 import java.io.Serializable;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * Created by Administrator on 2/21/2017.
@@ -10,15 +11,39 @@ import java.util.TreeMap;
 public class Variables implements Serializable
 {
     private TreeMap<String, MyComplex> _variables = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    /**
+     * Names of the variables that can't be changed.
+     */
+    private TreeSet<String> _constants = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
 
     public void put (String k, MyComplex v)
     {
         char c = k.charAt(0);
         if (c=='x' || c=='o' || c== 'b' || c=='h')
             throw new ExpressionException("not allowed as first char: "+c);
+        if (isConstant(k))
+            throw new ExpressionException("constant can't be changed: "+k);
         _variables.put(k, v);
     }
 
+    /**
+     * Defines a variable that can't be changed later, so expressions
+     * using it can be folded when they are compiled.
+     *
+     * @param k Name of the constant.
+     * @param v Its value.
+     */
+    public void putConstant (String k, MyComplex v)
+    {
+        put(k, v);
+        _constants.add(k);
+    }
+
+    public boolean isConstant (String k)
+    {
+        return _constants != null && _constants.contains(k);
+    }
+
     public Map getMap()
     {
         return _variables;
@@ -34,6 +59,18 @@ public class Variables implements Serializable
         return _variables.get(k);
     }
 
+    /**
+     * Sets a variable without the checks of {@link #put}, for copies of
+     * variables that were checked when they were created.
+     *
+     * @param k Name of the variable.
+     * @param v Its value.
+     */
+    void copy (String k, MyComplex v)
+    {
+        _variables.put(k, v);
+    }
+
     public void setMap (TreeMap<String, MyComplex> m)
     {
         _variables = m;
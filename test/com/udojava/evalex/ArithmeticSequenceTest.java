@@ -0,0 +1,92 @@
+package com.udojava.evalex;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedList;
+
+import static com.udojava.evalex.Results.bits;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ArithmeticSequenceTest
+{
+    private static final String[] SEQUENCES = {"SEQ(1,1,20)", "SEQ(-3,0.7,15)", "SEQ(0.5,-0.25,9)", "SEQ(2,0,5)",
+            "SEQ(1,1,1)"};
+
+    private final Variables vars = new Variables();
+
+    /**
+     * The elements of a sequence as an array literal.
+     */
+    private String asArray (String seq)
+    {
+        StringBuilder array = new StringBuilder("ARR(");
+        for (MyComplex e : new Expression(seq, new LinkedList<>(), vars).eval().list)
+        {
+            array.append(array.length() > 4 ? "," : "").append(e.real);
+        }
+        return array.append(')').toString();
+    }
+
+    /**
+     * Reductions and element-wise operations read a <code>SEQ</code> as
+     * its elements are generated, with the same results as for the same
+     * elements in an array.
+     */
+    @Test
+    public void streamedLikeAnArray ()
+    {
+        String[] forms = {"PROD(%s)", "GMEAN(%s)", "%s.*2", "%s./0.5", "%s.+%s", "%s./%s", "%s.-(1+2i)", "%s./0"};
+        for (String seq : SEQUENCES)
+        {
+            String array = asArray(seq);
+            for (String form : forms)
+            {
+                String streamed = form.replace("%s", seq);
+                String copied = form.replace("%s", array);
+                assertEquals(streamed + " and " + copied, bits(copied, vars), bits(streamed, vars));
+            }
+        }
+    }
+
+    /**
+     * Sums, means and variances use closed forms, which differ by
+     * rounding.
+     */
+    @Test
+    public void closedForms ()
+    {
+        for (String seq : SEQUENCES)
+        {
+            String array = asArray(seq);
+            for (String closed : new String[]{"VAR", "SUM", "AMEAN"})
+            {
+                double v = new Expression(closed + "(" + seq + ")", new LinkedList<>(), vars).eval().real;
+                double expected = new Expression(closed + "(" + array + ")", new LinkedList<>(), vars).eval().real;
+                assertEquals(closed + "(" + seq + ")", expected, v, 1e-12 * Math.max(1.0, Math.abs(expected)));
+            }
+        }
+    }
+
+    /**
+     * No reduction copies the elements.
+     */
+    @Test
+    public void reductionsDontCopy ()
+    {
+        Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        for (String huge : new String[]{"VAR(SEQ(1,1,1e9))", "SUM(SEQ(1,1,1e9))", "PROD(SEQ(1,1e-7,1e7))",
+                "GMEAN(SEQ(1,1,1e7))"})
+        {
+            // loads and initializes what the evaluation needs
+            new Expression(huge.replaceAll("1e[79]", "10"), new LinkedList<>(), vars).eval();
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            new Expression(huge, new LinkedList<>(), vars).eval();
+            long bytes = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+            assertTrue(huge + " allocated " + bytes + " bytes", bytes < 1 << 20);
+        }
+    }
+}
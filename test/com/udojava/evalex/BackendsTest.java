@@ -0,0 +1,150 @@
+package com.udojava.evalex;
+
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static com.udojava.evalex.Results.bits;
+import static com.udojava.evalex.Results.everyBackend;
+import static com.udojava.evalex.Results.interpreted;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The interpreted tree (as run while profiling), the flat
+ * {@link Program}, the real-only {@link RealNode} path, generated bytecode
+ * and a shared {@link CompiledExpression} give the same results.
+ */
+public class BackendsTest
+{
+    private static final String[] OPERATORS = {"+", "-", "*", "/", "^", "%", "<", ">", "=", "<=",
+            "!=", "&&", "||", "xor", "and", "or", "shl", "shr", ".+", ".*"};
+
+    private final Variables vars = new Variables();
+
+    public BackendsTest ()
+    {
+        vars.put("u", new MyComplex(3));
+        vars.put("w", new MyComplex(1.5));
+    }
+
+    /**
+     * A random expression of literals, the variables <code>u</code> and
+     * <code>w</code>, prefix and postfix operators, functions and
+     * operators, nested up to the given depth.
+     */
+    private static String generate (Random random, int depth)
+    {
+        switch (random.nextInt(depth <= 0 ? 3 : 9))
+        {
+            case 0:
+                return Integer.toString(random.nextInt(7));
+            case 1:
+                return random.nextBoolean() ? "u" : "w";
+            case 2:
+                return random.nextInt(5) + "." + random.nextInt(10);
+            case 3:
+                return "(" + generate(random, depth - 1) + ")";
+            case 4:
+                return "-" + generate(random, depth - 1);
+            case 5:
+                return random.nextInt(6) + "!";
+            case 6:
+                return "~" + generate(random, depth - 1);
+            case 7:
+                return "max(" + generate(random, depth - 1) + "," + generate(random, depth - 1) + ")";
+            default:
+                return generate(random, depth - 1) + " " + OPERATORS[random.nextInt(OPERATORS.length)] + " "
+                        + generate(random, depth - 1);
+        }
+    }
+
+    /**
+     * Random expressions give the same results to the last bit, or fail,
+     * with every backend.
+     */
+    @Test
+    public void randomExpressions ()
+    {
+        Random random = new Random(1);
+        for (int i = 0; i < 20_000; i++)
+        {
+            String f = generate(random, 4);
+            String tree = interpreted(f, vars);
+            assertEquals(f, tree, everyBackend(f, vars, tree));
+        }
+    }
+
+    /**
+     * Sums and arrays too long to be evaluated recursively.
+     */
+    @Test
+    public void longExpressions ()
+    {
+        StringBuilder sum = new StringBuilder("0");
+        StringBuilder array = new StringBuilder("ARR(0");
+        for (int n = 1; n <= 50_000; n++)
+        {
+            sum.append('+').append(n % 7).append("*u");
+            array.append(',').append(n % 7);
+        }
+        array.append(')');
+        assertEquals(450_009, new Expression(sum.toString(), new LinkedList<>(), vars).eval().real, 0.0);
+        assertEquals(150_003, new Expression("SUM(" + array + ")", new LinkedList<>(), vars).eval().real, 0.0);
+    }
+
+    /**
+     * NaN from the real path has the imaginary part of the complex rules.
+     */
+    @Test
+    public void divisionByZero ()
+    {
+        assertEquals(bits(new MyComplex(Double.NaN, Double.NaN, ValueType.REAL)), everyBackend("u/0", vars, null));
+    }
+
+    /**
+     * Impure functions are called once per evaluation, also where the
+     * result isn't real and the real path would evaluate again.
+     */
+    @Test
+    public void impureFunctionsRunOnce ()
+    {
+        int[] calls = {0};
+        Builtins builtins = Builtins.DEFAULT.withFunction(new Function("DRAW", 1, "-1, counted", ValueType.REAL)
+        {
+            @Override
+            public boolean isPure ()
+            {
+                return false;
+            }
+
+            @Override
+            public MyComplex eval (List<MyComplex> parameters)
+            {
+                return new MyComplex(evalReal(parameters.get(0).real));
+            }
+
+            @Override
+            public double evalReal (double v)
+            {
+                calls[0]++;
+                return -v;
+            }
+        });
+        for (String f : new String[]{"DRAW(u/3)^0.5", "sqrt(DRAW(1))", "u+DRAW(1)/0"})
+        {
+            Expression e = new Expression(f, new LinkedList<>(), vars, builtins);
+            calls[0] = 0;
+            e.eval();
+            assertEquals(f + " with eval", 1, calls[0]);
+            calls[0] = 0;
+            e.evalReal();
+            assertEquals(f + " with evalReal", 1, calls[0]);
+            CompiledExpression c = e.compile();
+            calls[0] = 0;
+            c.evalReal(c.newFrame());
+            assertEquals(f + " compiled", 1, calls[0]);
+        }
+    }
+}
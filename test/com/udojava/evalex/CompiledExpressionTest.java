@@ -0,0 +1,144 @@
+package com.udojava.evalex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.udojava.evalex.Results.text;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CompiledExpressionTest
+{
+    /**
+     * Threads sharing a {@link CompiledExpression}, interpreted and as
+     * bytecode, each with its own variables, get the same results and
+     * assignments as a fresh {@link Expression} per evaluation.
+     */
+    @Test
+    public void sharedBetweenThreads () throws Exception
+    {
+        String[] formulas = {
+                "sin(a)^2+cos(a)*sin(a)+sqrt(a+d)*sqrt(a+d)",
+                "if(a>d, a*2-d, sqrt(d-a)) + if(a<1, 1, a)",
+                "a>2 && d<3 || a=d",
+                "(c->a*d+1) + c*2",
+                "max(a, d, (a+d)/2)^2 - a*d",
+        };
+        int threads = 8;
+        int rounds = 2_000;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            for (String f : formulas)
+            {
+                Variables compileVars = new Variables();
+                CompiledExpression plain = new Expression(f, new LinkedList<>(), compileVars).compile();
+                Expression generating = new Expression(f, new LinkedList<>(), compileVars);
+                generating.compileBytecode();
+                CompiledExpression generated = generating.compile();
+                List<Future<String>> results = new ArrayList<>();
+                for (int t = 0; t < threads; t++)
+                {
+                    long seed = t;
+                    results.add(pool.submit(() -> {
+                        Random random = new Random(seed);
+                        Variables own = new Variables();
+                        Variables fresh = new Variables();
+                        for (int i = 0; i < rounds; i++)
+                        {
+                            MyComplex a = new MyComplex(random.nextInt(8) * 0.5);
+                            MyComplex d = new MyComplex(random.nextInt(8) * 0.5);
+                            for (CompiledExpression c : new CompiledExpression[]{plain, generated})
+                            {
+                                own.put("a", a);
+                                own.put("d", d);
+                                fresh.put("a", a);
+                                fresh.put("d", d);
+                                String got = c.eval(own).toStringComplex() + " c=" + text(own.get("c"));
+                                String expected = new Expression(f, new LinkedList<>(), fresh).eval()
+                                        .toStringComplex() + " c=" + text(fresh.get("c"));
+                                if (!got.equals(expected))
+                                {
+                                    return "a=" + text(a) + " d=" + text(d) + " gave " + got + ", expected " + expected;
+                                }
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<String> r : results)
+                {
+                    assertNull(f + " shared by " + threads + " threads", r.get());
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * <code>H</code> evaluated again and again with the variables in a
+     * frame compiles its history item once, instead of once per copy of
+     * the variables, and reads the variables of the frame.
+     */
+    @Test
+    public void historyInAFrameIsCompiledOnce ()
+    {
+        Variables vars = new Variables();
+        vars.put("a", new MyComplex(3));
+        LinkedList<String> history = new LinkedList<>(Arrays.asList("a*10+1"));
+        CompiledExpression c = new Expression("H(0)+a", history, vars).compile();
+        Frame frame = c.newFrame();
+        long misses = ExpressionCache.DEFAULT.getMisses();
+        double v = 0;
+        for (int i = 0; i < 1000; i++)
+        {
+            v = c.eval(frame, history).real;
+        }
+        assertEquals(34, v, 0.0);
+        misses = ExpressionCache.DEFAULT.getMisses() - misses;
+        assertTrue("H(0) in a frame missed the cache " + misses + " times", misses <= 1);
+    }
+
+    /**
+     * Assignments of a history item evaluated with the variables in a
+     * frame go to the frame, and fail for variables it has no slot for.
+     */
+    @Test
+    public void historyAssignsTheFrame ()
+    {
+        LinkedList<String> history = new LinkedList<>(Arrays.asList("a->a*2", "z->1"));
+        CompiledExpression c = new Expression("H(0)+a", history, new Variables()).compile();
+        Frame frame = c.newFrame();
+        frame.setReal(c.getSlot("a"), 3);
+        assertEquals(12, c.eval(frame, history).real, 0.0);
+        assertEquals(6, frame.getReal(c.getSlot("a")), 0.0);
+        c = new Expression("(a->a+1)+H(0)+a", history, new Variables()).compile();
+        frame = c.newFrame();
+        frame.setReal(c.getSlot("a"), 3);
+        assertEquals(4 + 8 + 8, c.eval(frame, history).real, 0.0);
+        assertEquals(8, frame.getReal(c.getSlot("a")), 0.0);
+        try
+        {
+            c = new Expression("H(1)+a", history, new Variables()).compile();
+            c.eval(c.newFrame(), history);
+            fail("z isn't in the frame");
+        }
+        catch (ExpressionException e)
+        {
+            assertTrue(e.getMessage(), e.getMessage().contains("z"));
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.udojava.evalex;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class MyComplexTest
+{
+    @Test
+    public void arraysAreNotEqualToScalars ()
+    {
+        MyComplex array = new MyComplex(Arrays.asList(new MyComplex(2)));
+        assertFalse(array.equals(new MyComplex(2)));
+        assertFalse(array.equals(new MyComplex(2, 0)));
+    }
+
+    /**
+     * <code>-</code> removes the elements equal to a scalar, nested arrays
+     * are compared to it too.
+     */
+    @Test
+    public void nestedArrayMinusScalar ()
+    {
+        Variables vars = new Variables();
+        assertEquals("[[1]]", new Expression("ARR(ARR(1),2)-2", new LinkedList<>(), vars).eval().toStringComplex());
+        assertEquals("[[1],3]", new Expression("ARR(ARR(1),2,3)-2", new LinkedList<>(), vars).eval().toStringComplex());
+    }
+}
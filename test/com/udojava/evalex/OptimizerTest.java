@@ -0,0 +1,102 @@
+package com.udojava.evalex;
+
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OptimizerTest
+{
+    private final int[] calls = {0};
+
+    /**
+     * Counts its calls and claims to be pure, so constant folding would
+     * call it.
+     */
+    private final Builtins builtins = Builtins.DEFAULT.withFunction(new Function("PROBE", 0)
+    {
+        @Override
+        public boolean isPure ()
+        {
+            return true;
+        }
+
+        @Override
+        public MyComplex eval (List<MyComplex> parameters)
+        {
+            calls[0]++;
+            return new MyComplex(1000);
+        }
+    });
+
+    private Variables conditions ()
+    {
+        Variables vars = new Variables();
+        vars.put("q", new MyComplex(1));
+        vars.put("r", new MyComplex(0));
+        return vars;
+    }
+
+    /**
+     * The operands <code>IF</code>, <code>&amp;&amp;</code> and
+     * <code>||</code> don't take are neither computed when the expression
+     * is compiled nor when it is evaluated, by any backend.
+     */
+    @Test
+    public void untakenOperandsAreNotComputed ()
+    {
+        Variables vars = conditions();
+        String[][] cases = {
+                {"if(q, 1, PROBE())", "1"},
+                {"if(r, PROBE(), 2)", "2"},
+                {"r && PROBE()", "0"},
+                {"q || PROBE()", "1"},
+                {"if(1, 2, PROBE())", "2"},
+                {"if(0, PROBE(), 3)", "3"},
+                {"0 && PROBE()", "0"},
+                {"1 || PROBE()+1", "1"},
+                {"if(q, 3, PROBE()*2+1) + if(0, PROBE(), 4)", "7"},
+                {"if(q, if(r, PROBE(), 5), PROBE())", "5"},
+                {"q && (r || if(q, 6, PROBE()))", "1"},
+                {"if(1 && r, PROBE(), 8)", "8"},
+        };
+        for (String[] c : cases)
+        {
+            double expected = Double.parseDouble(c[1]);
+            for (String backend : new String[]{"eval", "evalReal", "bytecode", "compiled"})
+            {
+                calls[0] = 0;
+                Expression e = new Expression(c[0], new LinkedList<>(), vars, builtins);
+                double v;
+                switch (backend)
+                {
+                    case "eval":
+                        v = e.eval().real;
+                        break;
+                    case "evalReal":
+                        v = e.evalReal();
+                        break;
+                    case "bytecode":
+                        e.compileBytecode();
+                        v = e.eval().real;
+                        break;
+                    default:
+                        v = e.compile().eval(vars).real;
+                        break;
+                }
+                assertEquals(c[0] + " with " + backend, expected, v, 0.0);
+                assertEquals(c[0] + " with " + backend + " computed an untaken operand", 0, calls[0]);
+            }
+        }
+    }
+
+    @Test
+    public void takenOperandsAreComputed ()
+    {
+        new Expression("if(q, PROBE(), 1)", new LinkedList<>(), conditions(), builtins).eval();
+        assertTrue(calls[0] > 0);
+    }
+}
@@ -0,0 +1,172 @@
+package com.udojava.evalex;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static com.udojava.evalex.Results.bits;
+import static com.udojava.evalex.Results.everyBackend;
+import static com.udojava.evalex.Results.interpreted;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * What {@link Peephole} and the fused <code>a*b+c</code> of
+ * {@link Program} promise. The built-in operators are reached by giving
+ * the constant as a variable, which isn't rewritten.
+ */
+public class PeepholeTest
+{
+    /**
+     * Operands for the rewritten operators: signed zeros, tiny, huge and
+     * special numbers, complex numbers and arrays.
+     */
+    private static List<MyComplex> operands ()
+    {
+        List<MyComplex> values = new ArrayList<>();
+        for (double d : new double[]{3, -3, -2, 0.0, -0.0, 0.5, -2.5, 1.1, 1e20, -1e20, 1e-20, 1e200, -1e-200,
+                Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY})
+        {
+            values.add(new MyComplex(d));
+        }
+        values.add(new MyComplex(2, 3));
+        values.add(new MyComplex(-1, -1));
+        values.add(new MyComplex(0, 1));
+        values.add(new MyComplex(1e200, 1e200));
+        values.add(new MyComplex(1e20, 1));
+        values.add(new MyComplex(1e-20, 1e-20));
+        values.add(new MyComplex(Arrays.asList(new MyComplex(1), new MyComplex(-2), new MyComplex(3))));
+        values.add(new MyComplex(Arrays.asList(new MyComplex(1, 1), new MyComplex(2))));
+        return values;
+    }
+
+    /**
+     * Divisions by constants and identities give the results of the
+     * built-in operators to the last bit, with every backend.
+     */
+    @Test
+    public void exactRewrites ()
+    {
+        String[][] forms = {
+                {"w/2", "2"}, {"w/3", "3"}, {"w/-4", "-4"}, {"w/0.1", "0.1"}, {"w/1e-310", "1e-310"},
+                {"w/8e307", "8e307"}, {"w*1", "1"}, {"1*w", "1"}, {"w+0", "0"}, {"0+w", "0"}, {"w-0", "0"},
+        };
+        for (MyComplex w : operands())
+        {
+            Variables vars = new Variables();
+            vars.put("w", w);
+            for (String[] form : forms)
+            {
+                vars.put("k", new Expression(form[1], new LinkedList<>(), new Variables()).eval());
+                String reference = form[0].replace(form[1], "k");
+                String expected = everyBackend(reference, vars, null);
+                assertEquals(form[0] + " with w=" + bits(w), expected, everyBackend(form[0], vars, expected));
+            }
+        }
+    }
+
+    /**
+     * Multiply-add gives the results of the interpreted tree, which
+     * isn't fused, to the last bit.
+     */
+    @Test
+    public void fusedMultiplyAdd ()
+    {
+        String[] forms = {"w*y+z", "z+w*y", "w*y+z*w", "w*y+z+w", "w*w+w*y"};
+        List<MyComplex> values = operands();
+        Random random = new Random(7);
+        for (MyComplex w : values)
+        {
+            Variables vars = new Variables();
+            vars.put("w", w);
+            vars.put("y", values.get(random.nextInt(values.size())));
+            vars.put("z", values.get(random.nextInt(values.size())));
+            for (String form : forms)
+            {
+                String expected = interpreted(form, vars);
+                assertEquals(form + " with w=" + bits(w) + " y=" + bits(vars.get("y")) + " z=" + bits(vars.get("z")),
+                        expected, everyBackend(form, vars, expected));
+            }
+        }
+    }
+
+    /**
+     * Integer powers, computed by squaring, are the same with every
+     * backend. They are exact where the result is an integer that fits in
+     * a double, and elsewhere within a relative 1e-13 of the logarithm and
+     * exponential of the built-in power, which for negative bases leaves a
+     * tiny imaginary part, like 4-0i for (-2)^2.
+     */
+    @Test
+    public void integerPowers ()
+    {
+        for (MyComplex w : operands())
+        {
+            Variables vars = new Variables();
+            vars.put("w", w);
+            for (int n : new int[]{2, 3, 5, 10, 16, 31, 32, -1, -2, -5, -16})
+            {
+                vars.put("k", new MyComplex(n));
+                String form = n < 0 ? "w^(" + n + ")" : "w^" + n;
+                MyComplex expected = new Expression("w^k", new LinkedList<>(), vars).eval();
+                String got = everyBackend(form, vars, null);
+                assertEquals(form + " differs between backends", got, everyBackend(form, vars, got));
+                MyComplex v = new Expression(form, new LinkedList<>(), vars).eval();
+                assertTrue(form + " with w=" + bits(w) + " gave " + bits(v) + ", w^k gave " + bits(expected),
+                        closePower(w, n, v, expected));
+            }
+        }
+    }
+
+    /**
+     * Tells if a power computed by squaring is as close as promised to the
+     * built-in power. Powers of arrays and of zero are the built-in ones.
+     */
+    private static boolean closePower (MyComplex w, int n, MyComplex v, MyComplex expected)
+    {
+        if (w.type == ValueType.ARRAY || w.real == 0.0 && w.imaginary == 0.0)
+        {
+            return bits(v).equals(bits(expected));
+        }
+        if (w.type == ValueType.REAL && w.real == Math.rint(w.real) && n > 0
+                && Math.abs(Math.pow(w.real, n)) < 0x1p53)
+        {
+            // an integer the squaring gets exactly
+            return v.real == Math.pow(w.real, n) && v.imaginary == 0.0;
+        }
+        if (v.isNaN() || expected.isNaN())
+        {
+            return v.isNaN() && expected.isNaN();
+        }
+        if (v.isInfinite() || expected.isInfinite())
+        {
+            return bits(v).equals(bits(expected));
+        }
+        double error = Math.hypot(v.real - expected.real, v.imaginary - expected.imaginary);
+        double size = Math.hypot(expected.real, expected.imaginary);
+        return error <= 1e-13 * size;
+    }
+
+    /**
+     * Powers whose squares overflow or underflow are left to the built-in
+     * power, instead of giving 0 or losing bits.
+     */
+    @Test
+    public void powersBeyondTheRange ()
+    {
+        Variables vars = new Variables();
+        vars.put("a", new MyComplex(1e20));
+        for (String[] c : new String[][]{{"a^-16", "a^k"}, {"(a+0.5)^(-16)", "(a+0.5)^k"}, {"(1/a)^16", "(1/a)^j"}})
+        {
+            vars.put("k", new MyComplex(-16));
+            vars.put("j", new MyComplex(16));
+            String expected = everyBackend(c[1], vars, null);
+            assertEquals(c[0], expected, everyBackend(c[0], vars, expected));
+        }
+        assertEquals(1.0E-320, new Expression("a^-16", new LinkedList<>(), vars).eval().real, 0.0);
+    }
+}
@@ -0,0 +1,107 @@
+package com.udojava.evalex;
+
+import java.util.LinkedList;
+
+/**
+ * Results of expressions as text for comparisons in tests, to the last
+ * bit or as the calculator shows them.
+ */
+final class Results
+{
+    private Results ()
+    {
+    }
+
+    /**
+     * The result of an expression with every element to the last bit, or
+     * the message if it fails.
+     */
+    static String bits (String expression, Variables vars)
+    {
+        try
+        {
+            return bits(new Expression(expression, new LinkedList<>(), vars).eval());
+        }
+        catch (ExpressionException e)
+        {
+            return e.getMessage();
+        }
+    }
+
+    static String bits (MyComplex v)
+    {
+        if (v.type != ValueType.ARRAY)
+        {
+            return v.type + " " + v.real + " " + v.imaginary;
+        }
+        StringBuilder sb = new StringBuilder("ARRAY ");
+        for (MyComplex e : v.list)
+        {
+            sb.append(bits(e)).append(' ');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Like {@link #bits(String, Variables)}, evaluated by the interpreted
+     * tree, as while profiling, instead of the compiled program.
+     */
+    static String interpreted (String expression, Variables vars)
+    {
+        Profiler.setEnabled(true);
+        try
+        {
+            return bits(expression, vars);
+        }
+        finally
+        {
+            Profiler.setEnabled(false);
+        }
+    }
+
+    /**
+     * Evaluates with every backend: {@link Expression#eval},
+     * {@link Expression#evalReal}, a {@link CompiledExpression} and
+     * generated bytecode.
+     *
+     * @param expected What all backends must give, <code>null</code> to
+     *                 take the result of {@link Expression#eval}.
+     * @return The result of {@link Expression#eval}, or a list of what
+     * each backend gave if they differ.
+     */
+    static String everyBackend (String expression, Variables vars, String expected)
+    {
+        String eval = bits(expression, vars);
+        String real;
+        String compiled;
+        String generated;
+        try
+        {
+            real = Double.toString(new Expression(expression, new LinkedList<>(), vars).evalReal());
+            compiled = bits(new Expression(expression, new LinkedList<>(), vars).compile().eval(vars));
+            Expression e = new Expression(expression, new LinkedList<>(), vars);
+            e.compileBytecode();
+            generated = bits(e.eval());
+        }
+        catch (ExpressionException e)
+        {
+            real = compiled = generated = e.getMessage();
+        }
+        String base = expected != null ? expected : eval;
+        String baseReal = base.startsWith("REAL ") || base.startsWith("COMPLEX ") ? base.split(" ")[1] : base;
+        if (eval.equals(base) && compiled.equals(base) && generated.equals(base)
+                && (base.startsWith("ARRAY") || real.equals(baseReal)))
+        {
+            return base;
+        }
+        return "eval " + eval + ", evalReal " + real + ", compiled " + compiled + ", bytecode " + generated;
+    }
+
+    /**
+     * A value as the calculator shows it.
+     */
+    static String text (MyComplex v)
+    {
+        return v == null ? "null" : v.toStringComplex();
+    }
+}